@@ -0,0 +1,175 @@
+package j3d;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the model pipeline over the bundled models, from loading to
+ * drawing. The models are read from the directory given by the system
+ * property {@code j3d.models}, {@code models} by default.
+ *
+ * @author Yizhuan Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector",
+		"-Djava.awt.headless=true" })
+public class ModelBenchmark {
+
+	@Param({ "cube.obj", "pyramid.obj", "sphere.obj", "duck.obj",
+			"skulmask.obj", "car.obj", "venus_hi.obj", "body.obj" })
+	public String model;
+
+	private static final int SIZE = 400;
+
+	private Path path;
+	private byte content[];
+
+	/**
+	 * Loaded, compressed and measured.
+	 */
+	private ObjModel3D ready;
+
+	private Transformer3D view;
+	private BufferedImage image;
+	private Graphics2D graphics;
+	private Paint3D painter;
+	private RasterPaint3D raster;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, ObjFileFormatException {
+		path = Paths.get(System.getProperty("j3d.models", "models"), model);
+		content = Files.readAllBytes(path);
+		ready = load();
+		ready.compress();
+		ready.findBoundary();
+
+		float size = Math.max(ready.xmax - ready.xmin, Math.max(ready.ymax
+				- ready.ymin, ready.zmax - ready.zmin));
+		float fac = 0.7f * SIZE / size;
+		view = new Transformer3D();
+		view.translate(-(ready.xmin + ready.xmax) / 2,
+				-(ready.ymin + ready.ymax) / 2, -(ready.zmin + ready.zmax) / 2);
+		view.rotY(20);
+		view.rotX(20);
+		view.scale(fac, -fac, 16 * fac / SIZE);
+		view.translate(SIZE / 2, SIZE / 2, 8);
+		ready.transform(view);
+
+		image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		painter = new Paint3D();
+		raster = new RasterPaint3D();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	/**
+	 * A model loaded but not compressed, loaded again before each call.
+	 */
+	@State(Scope.Thread)
+	public static class Raw {
+		ObjModel3D model;
+
+		@Setup(Level.Invocation)
+		public void reload(ModelBenchmark b) throws IOException,
+				ObjFileFormatException {
+			model = b.load();
+		}
+	}
+
+	/**
+	 * Parses the model from memory.
+	 */
+	@Benchmark
+	public ObjModel3D load() throws IOException, ObjFileFormatException {
+		ObjModel3D m = new ObjModel3D();
+		m.load(new ByteArrayInputStream(content));
+		return m;
+	}
+
+	/**
+	 * Parses the model from memory, dropping duplicates on the way.
+	 */
+	@Benchmark
+	public ObjModel3D loadDeduplicated() throws IOException,
+			ObjFileFormatException {
+		ObjModel3D m = new ObjModel3D();
+		m.setDeduplicateOnLoad(true);
+		m.load(new ByteArrayInputStream(content));
+		return m;
+	}
+
+	/**
+	 * Maps and parses the model file.
+	 */
+	@Benchmark
+	public ObjModel3D loadFile() throws IOException, ObjFileFormatException {
+		ObjModel3D m = new ObjModel3D();
+		m.load(path);
+		return m;
+	}
+
+	@Benchmark
+	public ObjModel3D compress(Raw raw) {
+		raw.model.compress();
+		return raw.model;
+	}
+
+	@Benchmark
+	public ObjModel3D findBoundary() {
+		ready.findBoundary();
+		return ready;
+	}
+
+	@Benchmark
+	public ObjModel3D transform() {
+		ready.setTransformed(false);
+		ready.transform(view);
+		return ready;
+	}
+
+	/**
+	 * Draws with Java 2D lines into an offscreen image.
+	 */
+	@Benchmark
+	public BufferedImage paint() {
+		painter.paint(graphics, ready);
+		return image;
+	}
+
+	/**
+	 * Draws into the pixels of a reused image.
+	 */
+	@Benchmark
+	public FrameBuffer rasterize() {
+		raster.render(ready, SIZE, SIZE);
+		return raster.getFrameBuffer();
+	}
+}
@@ -0,0 +1,83 @@
+package j3d;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link Transformer3D}: composing matrices, and transforming
+ * packed coordinates with and without the Vector API. Every parameter set
+ * runs in its own JVM, so setting {@code j3d.vector} before the transformer
+ * class is first used selects the implementation.
+ *
+ * @author Yizhuan Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TransformerBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int vertices;
+
+	@Param({ "true", "false" })
+	public String vector;
+
+	private float x[], y[], z[], tx[], ty[], tz[];
+	private Transformer3D t, rotation;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.setProperty("j3d.vector", vector);
+		if (Transformer3D.isVectorized() != Boolean.parseBoolean(vector))
+			System.err.println("Vector API not available, running scalar");
+		Random r = new Random(7);
+		x = new float[vertices];
+		y = new float[vertices];
+		z = new float[vertices];
+		for (int i = 0; i < vertices; i++) {
+			x[i] = r.nextFloat();
+			y[i] = r.nextFloat();
+			z[i] = r.nextFloat();
+		}
+		tx = new float[vertices];
+		ty = new float[vertices];
+		tz = new float[vertices];
+		t = new Transformer3D();
+		t.rotX(20);
+		t.rotY(30);
+		t.scale(200, -200, 2);
+		t.translate(200, 200, 8);
+		rotation = new Transformer3D();
+		rotation.rotX(5);
+		rotation.rotY(5);
+		rotation.rotZ(5);
+	}
+
+	@Benchmark
+	public Transformer3D mult() {
+		t.mult(rotation);
+		return t;
+	}
+
+	@Benchmark
+	public float[] transform() {
+		t.transform(x, y, z, tx, ty, tz, vertices);
+		return tx;
+	}
+}
@@ -0,0 +1,312 @@
+package j3d;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders every OBJ model of a directory tree to a PNG image, without a
+ * display. With one angle the image is a thumbnail; with more it is a
+ * turntable sprite sheet, one frame per angle side by side, the model
+ * turning around its vertical axis.
+ * <p>
+ * Models are rendered in parallel on a fixed number of threads; during a run
+ * each thread keeps its own image and renderer and reuses them for every
+ * model.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp j3d.jar j3d.BatchRenderer [options] models output
+ *   -size N        size of a frame in pixels, 256 by default
+ *   -angles N      frames of a turntable, 1 (a thumbnail) by default
+ *   -threads N     rendering threads, the number of processors by default
+ *   -renderer R    lines, raster or solid, lines by default
+ *   -hidden        hide lines behind the model
+ * </pre>
+ *
+ * @author Yizhuan Yu
+ */
+public class BatchRenderer {
+
+	/**
+	 * Tilt of the model towards the viewer, in degrees.
+	 */
+	private static final double TILT = 20;
+
+	private int size = 256;
+	private int angles = 1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String renderer = "lines";
+	private boolean hidden;
+
+	/**
+	 * Image and renderers of one thread, with the size and number of frames
+	 * they were made for.
+	 */
+	private class Canvas {
+		final int size = BatchRenderer.this.size;
+		final int angles = BatchRenderer.this.angles;
+		final BufferedImage sheet = new BufferedImage(size * angles, size,
+				BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = sheet.createGraphics();
+		final Paint3D lines = new Paint3D();
+		final RasterPaint3D raster = new RasterPaint3D();
+		final SolidPaint3D solid = new SolidPaint3D();
+		final Transformer3D view = new Transformer3D();
+		final Transformer3D turn = new Transformer3D();
+
+		Canvas() {
+			raster.setParallelThreshold(Integer.MAX_VALUE);// one thread each
+		}
+	}
+
+	/**
+	 * Constructs a renderer with the default options.
+	 */
+	public BatchRenderer() {
+
+	}
+
+	/**
+	 * Sets the size of a frame.
+	 *
+	 * @param size
+	 *            width and height in pixels
+	 */
+	public void setSize(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("bad size: " + size);
+		this.size = size;
+	}
+
+	/**
+	 * Sets the number of frames of a turntable.
+	 *
+	 * @param angles
+	 *            number of frames, 1 for a thumbnail
+	 */
+	public void setAngles(int angles) {
+		if (angles < 1)
+			throw new IllegalArgumentException("bad angles: " + angles);
+		this.angles = angles;
+	}
+
+	/**
+	 * Sets the number of rendering threads.
+	 *
+	 * @param threads
+	 *            number of threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("bad threads: " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the renderer.
+	 *
+	 * @param renderer
+	 *            "lines" for {@link Paint3D}, "raster" for
+	 *            {@link RasterPaint3D} or "solid" for {@link SolidPaint3D}
+	 */
+	public void setRenderer(String renderer) {
+		if (!renderer.equals("lines") && !renderer.equals("raster")
+				&& !renderer.equals("solid"))
+			throw new IllegalArgumentException("unknown renderer: "
+					+ renderer);
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Sets whether lines behind the model are hidden.
+	 *
+	 * @param hidden
+	 *            true to hide lines behind the model
+	 */
+	public void setHiddenLineRemoval(boolean hidden) {
+		this.hidden = hidden;
+	}
+
+	/**
+	 * Renders all models of a directory tree. Images are written to the
+	 * same relative place in the output directory, with the extension
+	 * ".png". A model that fails is reported and skipped.
+	 *
+	 * @param input
+	 *            directory of the models
+	 * @param output
+	 *            directory of the images
+	 * @return number of images written
+	 * @throws IOException
+	 *             thrown when the input directory cannot be read.
+	 * @throws InterruptedException
+	 *             thrown when interrupted while waiting for the threads.
+	 */
+	public int renderAll(Path input, Path output) throws IOException,
+			InterruptedException {
+		List<Path> models;
+		try (Stream<Path> s = Files.walk(input)) {
+			models = s.filter(p -> Files.isRegularFile(p)
+							&& p.getFileName().toString().toLowerCase(Locale.ROOT)
+									.endsWith(".obj")).sorted()
+					.collect(Collectors.toList());
+		}
+		AtomicInteger done = new AtomicInteger();
+		// made for this run, so that the canvases have the current size and
+		// go away with the threads
+		ThreadLocal<Canvas> canvas = ThreadLocal.withInitial(Canvas::new);
+		// at most two models wait for each thread; the caller blocks rather
+		// than rendering itself, so that no more than "threads" models are
+		// drawn at once
+		Semaphore slots = new Semaphore(threads * 3);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (Path obj : models) {
+				String name = input.relativize(obj).toString();
+				Path png = output.resolve(name.substring(0, name.length() - 4)
+						+ ".png");
+				slots.acquire();
+				pool.execute(() -> {
+					try {
+						render(obj, png, canvas.get());
+						done.incrementAndGet();
+					} catch (Exception e) {
+						System.err.println(obj + ": " + e);
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		return done.get();
+	}
+
+	/**
+	 * Renders one model.
+	 *
+	 * @param obj
+	 *            the model
+	 * @param png
+	 *            the image to write
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	public void render(Path obj, Path png) throws IOException,
+			ObjFileFormatException {
+		render(obj, png, new Canvas());
+	}
+
+	private void render(Path obj, Path png, Canvas c) throws IOException,
+			ObjFileFormatException {
+		int size = c.size, angles = c.angles;
+		ObjModel3D m = new ObjModel3D();
+		m.setDeduplicateOnLoad(true);
+		m.load(obj);
+		m.findBoundary();
+		m.optimizeLayout();
+		m.setHiddenLineRemoval(hidden);
+
+		Graphics2D g = c.g;
+		g.setColor(Color.white);
+		g.fillRect(0, 0, size * angles, size);
+		for (int i = 0; i < angles; i++) {
+			c.turn.reset();
+			c.turn.rotY(360.0 * i / angles);
+			c.turn.rotX(TILT);
+			c.view.fit(m, c.turn, size, size, 0.7);
+			m.setTransformed(false);
+			m.transform(c.view);
+			if (renderer.equals("solid")) {
+				c.solid.render(m, c.view, size, size);
+				g.drawImage(c.solid.getFrameBuffer().getImage(), i * size, 0,
+						null);
+			} else if (renderer.equals("raster")) {
+				c.raster.render(m, size, size);
+				g.drawImage(c.raster.getFrameBuffer().getImage(), i * size, 0,
+						null);
+			} else {
+				g.setClip(i * size, 0, size, size);
+				g.translate(i * size, 0);
+				c.lines.paint(g, m);
+				g.translate(-i * size, 0);
+				g.setClip(null);
+			}
+		}
+		Path dir = png.toAbsolutePath().getParent();
+		if (dir != null)
+			Files.createDirectories(dir);
+		ImageIO.write(c.sheet, "png", png.toFile());
+	}
+
+	/**
+	 * Renders the models of a directory from the command line.
+	 *
+	 * @param args
+	 *            options, the model directory and the output directory
+	 * @throws Exception
+	 *             thrown when rendering failed.
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		BatchRenderer r = new BatchRenderer();
+		List<String> dirs = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-size":
+					r.setSize(Integer.parseInt(args[++i]));
+					break;
+				case "-angles":
+					r.setAngles(Integer.parseInt(args[++i]));
+					break;
+				case "-threads":
+					r.setThreads(Integer.parseInt(args[++i]));
+					break;
+				case "-renderer":
+					r.setRenderer(args[++i]);
+					break;
+				case "-hidden":
+					r.setHiddenLineRemoval(true);
+					break;
+				default:
+					dirs.add(args[i]);
+				}
+			}
+			if (dirs.size() != 2)
+				throw new IllegalArgumentException("expected two directories");
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: BatchRenderer [-size N] [-angles N]"
+					+ " [-threads N] [-renderer lines|raster|solid] [-hidden]"
+					+ " models output");
+			System.exit(2);
+		}
+
+		long start = System.nanoTime();
+		int n = r.renderAll(Paths.get(dirs.get(0)), Paths.get(dirs.get(1)));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf(Locale.ROOT, "%d models in %.2f s, %.1f models/s%n",
+				n, seconds, n / seconds);
+	}
+}
@@ -0,0 +1,318 @@
+package j3d;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file format of a loaded, compressed and measured model. It can be
+ * loaded without any parsing.
+ * <p>
+ * Layout, little-endian: a 64 byte header holding the magic number
+ * {@code J3DM}, the version, flags, number of vertices, number of
+ * connections and the six boundaries (xmin, xmax, ymin, ymax, zmin, zmax);
+ * then all x coordinates, all y coordinates and all z coordinates as floats;
+ * then the connections, as ints or, when the {@link #WIDE} flag is set, as
+ * longs. Since version 3 the header also holds the number of faces and the
+ * number of face indices at byte 44 and 48, and the connections are followed
+ * by the start of each face and by the face indices, as ints.
+ *
+ * @author Yizhuan Yu
+ */
+public final class BinaryModelFormat {
+
+	/**
+	 * The magic number, "J3DM".
+	 */
+	public static final int MAGIC = 0x4A33444D;
+
+	/**
+	 * The current version.
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * Flag of files holding wide connections.
+	 */
+	public static final int WIDE = 1;
+
+	/**
+	 * Size of the header in bytes.
+	 */
+	private static final int HEADER = 64;
+
+	/**
+	 * Size of the buffer used when writing.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Largest region mapped at once.
+	 */
+	private static final long MAP_WINDOW = 1L << 30;
+
+	private BinaryModelFormat() {
+	}
+
+	/**
+	 * Writes a model. The model is compressed and measured first.
+	 *
+	 * @param model
+	 *            the model
+	 * @param path
+	 *            the file to write
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 */
+	public static void write(ObjModel3D model, Path path) throws IOException {
+		model.compress();
+		model.findBoundary();
+		int nvert = model.getNumberOfVertices();
+		int ncon = model.getNumberOfConnections();
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			boolean wide = model.hasWideConnections();
+			b.putInt(MAGIC).putInt(VERSION).putInt(wide ? WIDE : 0)
+					.putInt(nvert).putInt(ncon);
+			b.putFloat(model.xmin).putFloat(model.xmax).putFloat(model.ymin)
+					.putFloat(model.ymax).putFloat(model.zmin)
+					.putFloat(model.zmax);
+			int nface = model.getNumberOfFaces();
+			int faceStart[] = model.getFaceStarts();
+			b.putInt(nface).putInt(nface == 0 ? 0 : faceStart[nface]);
+			while (b.position() < HEADER)
+				b.put((byte) 0);
+			writeFloats(ch, b, model.getOriginalX(), nvert);
+			writeFloats(ch, b, model.getOriginalY(), nvert);
+			writeFloats(ch, b, model.getOriginalZ(), nvert);
+			if (wide) {
+				long con[] = model.getWideConnections();
+				for (int i = 0; i < ncon; i++) {
+					if (b.remaining() < 8)
+						flush(ch, b);
+					b.putLong(con[i]);
+				}
+			} else {
+				int con[] = model.getConnections();
+				for (int i = 0; i < ncon; i++) {
+					if (b.remaining() < 4)
+						flush(ch, b);
+					b.putInt(con[i]);
+				}
+			}
+			if (nface > 0) {
+				writeInts(ch, b, faceStart, nface + 1);
+				writeInts(ch, b, model.getFaceIndices(), faceStart[nface]);
+			}
+			flush(ch, b);
+		}
+	}
+
+	private static void writeInts(FileChannel ch, ByteBuffer b, int v[], int n)
+			throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (b.remaining() < 4)
+				flush(ch, b);
+			b.putInt(v[i]);
+		}
+	}
+
+	private static void writeFloats(FileChannel ch, ByteBuffer b, float v[],
+			int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (b.remaining() < 4)
+				flush(ch, b);
+			b.putFloat(v[i]);
+		}
+	}
+
+	private static void flush(FileChannel ch, ByteBuffer b) throws IOException {
+		b.flip();
+		while (b.hasRemaining())
+			ch.write(b);
+		b.clear();
+	}
+
+	/**
+	 * Reads a model by mapping the file into memory.
+	 *
+	 * @param path
+	 *            the file to read
+	 * @return the model, ready to be transformed
+	 * @throws IOException
+	 *             thrown when I/O access failed or the file is not a model
+	 *             of the current version.
+	 * @throws ObjFileFormatException
+	 *             thrown when the connections or faces refer to vertices
+	 *             that are not in the file.
+	 */
+	public static ObjModel3D read(Path path) throws IOException,
+			ObjFileFormatException {
+		return read(path, 1);
+	}
+
+	/**
+	 * Reads a model written by a given version or a later one.
+	 *
+	 * @param path
+	 *            the file to read
+	 * @param minVersion
+	 *            oldest version accepted
+	 * @return the model, ready to be transformed
+	 * @throws IOException
+	 *             thrown when I/O access failed or the file is not a model
+	 *             of an accepted version.
+	 * @throws ObjFileFormatException
+	 *             thrown when the connections or faces refer to vertices
+	 *             that are not in the file.
+	 */
+	static ObjModel3D read(Path path, int minVersion) throws IOException,
+			ObjFileFormatException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size < HEADER)
+				throw new IOException("not a model file: " + path);
+			ByteBuffer h = map(ch, 0, HEADER);
+			if (h.getInt() != MAGIC)
+				throw new IOException("not a model file: " + path);
+			int version = h.getInt();
+			if (version < minVersion || version > VERSION)
+				throw new IOException("unsupported model file version "
+						+ version + ": " + path);
+			boolean wide = (h.getInt() & WIDE) != 0;
+			int nvert = h.getInt();
+			int ncon = h.getInt();
+			int conSize = wide ? 8 : 4;
+			if (nvert < 0 || ncon < 0
+					|| size < HEADER + 12L * nvert + (long) conSize * ncon)
+				throw new IOException("truncated model file: " + path);
+			ObjModel3D m = new ObjModel3D();
+			m.xmin = h.getFloat();
+			m.xmax = h.getFloat();
+			m.ymin = h.getFloat();
+			m.ymax = h.getFloat();
+			m.zmin = h.getFloat();
+			m.zmax = h.getFloat();
+			int nface = 0, nfaceIndex = 0;
+			if (version >= 3) {
+				nface = h.getInt();
+				nfaceIndex = h.getInt();
+				if (nface < 0 || nfaceIndex < 0
+						|| size < HEADER + 12L * nvert + (long) conSize * ncon
+								+ 4L * (nface + 1) + 4L * nfaceIndex)
+					throw new IOException("truncated model file: " + path);
+			}
+
+			long pos = HEADER;
+			float x[] = new float[nvert];
+			float y[] = new float[nvert];
+			float z[] = new float[nvert];
+			pos = readFloats(ch, pos, x);
+			pos = readFloats(ch, pos, y);
+			pos = readFloats(ch, pos, z);
+			int con[] = null;
+			long wideCon[] = null;
+			if (wide)
+				wideCon = new long[ncon];
+			else
+				con = new int[ncon];
+			for (int off = 0; off < ncon;) {
+				int n = (int) Math.min(ncon - off, MAP_WINDOW / conSize);
+				MappedByteBuffer b = map(ch, pos, (long) conSize * n);
+				if (wide)
+					b.asLongBuffer().get(wideCon, off, n);
+				else
+					b.asIntBuffer().get(con, off, n);
+				off += n;
+				pos += (long) conSize * n;
+			}
+			int faceStart[] = null, faceIndex[] = null;
+			if (nface > 0) {
+				faceStart = new int[nface + 1];
+				faceIndex = new int[nfaceIndex];
+				pos = readInts(ch, pos, faceStart);
+				pos = readInts(ch, pos, faceIndex);
+				if (faceStart[nface] != nfaceIndex)
+					throw new IOException("damaged model file: " + path);
+			}
+			checkIndices(path, nvert, con, wideCon, ncon, faceStart,
+					faceIndex, nface);
+			m.set(x, y, z, nvert, con, wideCon, ncon, faceStart, faceIndex,
+					nface);
+			return m;
+		}
+	}
+
+	/**
+	 * Checks that the connections and faces read refer to vertices of the
+	 * model and that every face has at least three points, as added by
+	 * {@link ObjModel3D#addFace(int[], int, int)}, so that a damaged file
+	 * fails here rather than while drawing.
+	 */
+	private static void checkIndices(Path path, int nvert, int con[],
+			long wideCon[], int ncon, int faceStart[], int faceIndex[],
+			int nface) throws ObjFileFormatException {
+		for (int i = 0; i < ncon; i++) {
+			long p1, p2;
+			if (wideCon != null) {
+				p1 = wideCon[i] >>> 32;
+				p2 = wideCon[i] & 0xFFFFFFFFL;
+			} else {
+				p1 = con[i] >>> 16;
+				p2 = con[i] & 0xFFFF;
+			}
+			if (p1 >= nvert || p2 >= nvert)
+				throw new ObjFileFormatException("connection " + i
+						+ " out of range in model file: " + path);
+		}
+		if (nface == 0)
+			return;
+		if (faceStart[0] != 0)
+			throw new ObjFileFormatException("damaged faces in model file: "
+					+ path);
+		for (int f = 0; f < nface; f++)
+			if (faceStart[f + 1] - faceStart[f] < 3)
+				throw new ObjFileFormatException(
+						"damaged faces in model file: " + path);
+		for (int i = 0; i < faceStart[nface]; i++)
+			if (faceIndex[i] < 0 || faceIndex[i] >= nvert)
+				throw new ObjFileFormatException("face point " + i
+						+ " out of range in model file: " + path);
+	}
+
+	private static long readInts(FileChannel ch, long pos, int v[])
+			throws IOException {
+		for (int off = 0; off < v.length;) {
+			int n = (int) Math.min(v.length - off, MAP_WINDOW / 4);
+			map(ch, pos, 4L * n).asIntBuffer().get(v, off, n);
+			off += n;
+			pos += 4L * n;
+		}
+		return pos;
+	}
+
+	private static long readFloats(FileChannel ch, long pos, float v[])
+			throws IOException {
+		for (int off = 0; off < v.length;) {
+			int n = (int) Math.min(v.length - off, MAP_WINDOW / 4);
+			map(ch, pos, 4L * n).asFloatBuffer().get(v, off, n);
+			off += n;
+			pos += 4L * n;
+		}
+		return pos;
+	}
+
+	private static MappedByteBuffer map(FileChannel ch, long pos, long len)
+			throws IOException {
+		MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		return b;
+	}
+}
@@ -0,0 +1,161 @@
+package j3d;
+
+import java.util.Arrays;
+
+/**
+ * Hash table from connections to their index, with open addressing and
+ * linear probing over primitive arrays. A connection is the long made of its
+ * starting point in the upper and its end point in the lower 32 bits, so it
+ * is never negative.
+ *
+ * @author Yizhuan Yu
+ */
+class EdgeTable {
+
+	/**
+	 * Marks a free slot.
+	 */
+	private static final long FREE = -1L;
+
+	/**
+	 * Slots per starting point, in 1/256. The home slot of a connection is
+	 * derived from its starting point so that connections of points close in
+	 * the file are close in the table.
+	 */
+	private int spread;
+
+	/**
+	 * Largest starting point added.
+	 */
+	private int maxStart;
+
+	private long keys[];
+	private int values[];
+	private int size;
+	private int mask;
+
+	/**
+	 * Constructs a new table.
+	 *
+	 * @param expected
+	 *            expected number of connections
+	 * @param nvert
+	 *            expected number of points
+	 */
+	EdgeTable(int expected, int nvert) {
+		int cap = 16;
+		while (cap * 3L / 4 < expected)
+			cap <<= 1;
+		allocate(cap);
+		setSpread(nvert);
+	}
+
+	private void allocate(int cap) {
+		keys = new long[cap];
+		Arrays.fill(keys, FREE);
+		values = new int[cap];
+		mask = cap - 1;
+	}
+
+	/**
+	 * Returns the key of a connection.
+	 *
+	 * @param p1
+	 *            the starting point
+	 * @param p2
+	 *            the end point
+	 * @return the key
+	 */
+	static long key(int p1, int p2) {
+		return ((long) p1 << 32) | (p2 & 0xFFFFFFFFL);
+	}
+
+	private void setSpread(int nvert) {
+		spread = (int) Math.max(1,
+				Math.min(1 << 16, ((long) (mask + 1) << 8) / Math.max(nvert, 1)));
+	}
+
+	private int hash(long k) {
+		int p1 = (int) (k >>> 32);
+		int p2 = (int) k;
+		return (int) (((long) p1 * spread) >>> 8) + (p2 * 0x9E3779B1 >>> 30);
+	}
+
+	/**
+	 * Adds a connection unless it is already present.
+	 *
+	 * @param key
+	 *            the connection
+	 * @param index
+	 *            its index
+	 * @return the index of the connection already present, or -1 if the
+	 *         connection has been added
+	 */
+	int putIfAbsent(long key, int index) {
+		long k[] = keys;
+		int i = hash(key) & mask;
+		while (true) {
+			long c = k[i];
+			if (c == FREE)
+				break;
+			if (c == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		k[i] = key;
+		values[i] = index;
+		int p1 = (int) (key >>> 32);
+		if (p1 > maxStart)
+			maxStart = p1;
+		if (++size > (mask + 1) * 3L / 4)
+			rehash();
+		return -1;
+	}
+
+	/**
+	 * Returns the index of a connection.
+	 *
+	 * @param key
+	 *            the connection
+	 * @return its index, or -1 if absent
+	 */
+	int get(long key) {
+		long k[] = keys;
+		int i = hash(key) & mask;
+		while (true) {
+			long c = k[i];
+			if (c == FREE)
+				return -1;
+			if (c == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns number of connections.
+	 *
+	 * @return number of connections
+	 */
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		long ok[] = keys;
+		int ov[] = values;
+		allocate(ok.length * 2);
+		setSpread(maxStart + 1);
+		long k[] = keys;
+		for (int j = 0; j < ok.length; j++) {
+			long key = ok[j];
+			if (key == FREE)
+				continue;
+			int i = hash(key) & mask;
+			while (k[i] != FREE)
+				i = (i + 1) & mask;
+			k[i] = key;
+			values[i] = ov[j];
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package j3d;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * An RGB image with direct access to its pixels and an optional depth
+ * buffer. It is reused between frames and only reallocated when its size
+ * changes.
+ *
+ * @author Yizhuan Yu
+ */
+public class FrameBuffer {
+
+	private BufferedImage image;
+	private int pixels[];
+	private int depth[];
+	private int width, height;
+
+	/**
+	 * Constructs an empty frame buffer.
+	 */
+	public FrameBuffer() {
+
+	}
+
+	/**
+	 * Sets the size of the frame buffer. The content is lost if the size
+	 * changes.
+	 *
+	 * @param width
+	 *            width in pixels
+	 * @param height
+	 *            height in pixels
+	 */
+	public void setSize(int width, int height) {
+		width = Math.max(width, 1);
+		height = Math.max(height, 1);
+		if (image != null && width == this.width && height == this.height)
+			return;
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		depth = null;
+	}
+
+	/**
+	 * Fills the image with one color.
+	 *
+	 * @param rgb
+	 *            the color
+	 */
+	public void clear(int rgb) {
+		Arrays.fill(pixels, 0, width * height, rgb);
+	}
+
+	/**
+	 * Resets the depth buffer to the farthest depth, allocating it if needed.
+	 */
+	public void clearDepth() {
+		if (depth == null)
+			depth = new int[width * height];
+		Arrays.fill(depth, Integer.MIN_VALUE);
+	}
+
+	/**
+	 * Returns the image.
+	 *
+	 * @return the image
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the pixels of the image, row by row.
+	 *
+	 * @return the pixels
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the depth buffer, a fixed point depth with 16 fraction bits
+	 * per pixel, larger being nearer.
+	 *
+	 * @return the depth buffer, or null if {@link #clearDepth()} has not been
+	 *         called since the last resize
+	 */
+	public int[] getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the width.
+	 *
+	 * @return width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height.
+	 *
+	 * @return height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
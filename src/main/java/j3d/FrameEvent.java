@@ -0,0 +1,45 @@
+package j3d;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one frame, with the time spent in each stage of
+ * the pipeline. The duration of the event is the whole frame.
+ *
+ * @author Yizhuan Yu
+ */
+@Name("j3d.Frame")
+@Label("Frame")
+@Category("J3D")
+@Description("A frame drawn by the 3D viewer")
+public class FrameEvent extends jdk.jfr.Event {
+
+	@Label("Renderer")
+	public String renderer;
+
+	@Label("Vertices")
+	public int vertices;
+
+	@Label("Connections")
+	public int connections;
+
+	@Label("Simplified")
+	@Description("Whether a simplified version of the model was drawn")
+	public boolean simplified;
+
+	@Label("Transform Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long transformTime;
+
+	@Label("Rasterize Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long rasterizeTime;
+
+	@Label("Blit Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long blitTime;
+}
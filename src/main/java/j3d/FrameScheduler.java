@@ -0,0 +1,333 @@
+package j3d;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an animation at a target frame rate. The animation advances in
+ * fixed time steps, so it moves at the same speed however long frames take
+ * to draw; frames are requested at the target rate, and a frame is skipped
+ * when the previous one is still being drawn. Requests made while a frame
+ * is pending are merged into it.
+ * <p>
+ * The frame time is measured by the caller, from the start to the end of
+ * drawing, and handed over with {@link #frameRendered(long)}; it gives the
+ * achieved frame rate and the frame time percentiles.
+ *
+ * @author Yizhuan Yu
+ */
+public class FrameScheduler {
+
+	/**
+	 * The animated scene.
+	 */
+	public interface Scene {
+
+		/**
+		 * Advances the animation by one time step.
+		 *
+		 * @param seconds
+		 *            length of the step
+		 * @return true if the scene changed and must be drawn again
+		 */
+		boolean update(double seconds);
+
+		/**
+		 * Asks for a frame to be drawn, usually with a repaint. The drawing
+		 * reports its end with {@link FrameScheduler#frameRendered(long)}.
+		 */
+		void render();
+	}
+
+	/**
+	 * Largest number of time steps taken for one frame. Beyond, the
+	 * animation slows down rather than jumping.
+	 */
+	private static final int MAX_STEPS = 5;
+
+	/**
+	 * A pending frame older than this is requested again, in case the
+	 * request was lost.
+	 */
+	private static final long FRAME_TIMEOUT = 1000000000L;
+
+	/**
+	 * Number of frames kept for the statistics.
+	 */
+	private static final int HISTORY = 256;
+
+	private final Scene scene;
+	private volatile long period;
+	private final long step;
+
+	private final AtomicBoolean pending = new AtomicBoolean();
+	private volatile boolean dirty;
+	private volatile long requested;
+
+	private final Object lock = new Object();
+	private Thread thread;
+	private boolean running, paused;
+
+	private final long frameTimes[] = new long[HISTORY];
+	private final long frameEnds[] = new long[HISTORY];
+	private int frames;
+	private long skipped;
+
+	/**
+	 * Constructs a scheduler.
+	 *
+	 * @param scene
+	 *            the scene
+	 * @param targetFps
+	 *            frames per second to draw
+	 * @param updatesPerSecond
+	 *            time steps of the animation per second
+	 */
+	public FrameScheduler(Scene scene, double targetFps, double updatesPerSecond) {
+		this.scene = scene;
+		setTargetFps(targetFps);
+		this.step = (long) (1e9 / updatesPerSecond);
+	}
+
+	/**
+	 * Sets the number of frames per second to draw.
+	 *
+	 * @param fps
+	 *            frames per second
+	 */
+	public void setTargetFps(double fps) {
+		if (!(fps > 0))
+			throw new IllegalArgumentException("bad frame rate: " + fps);
+		period = (long) (1e9 / fps);
+	}
+
+	/**
+	 * Returns the number of frames per second drawn when frames are fast
+	 * enough.
+	 *
+	 * @return frames per second
+	 */
+	public double getTargetFps() {
+		return 1e9 / period;
+	}
+
+	/**
+	 * Starts the scheduler thread.
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (thread != null)
+				return;
+			running = true;
+			paused = false;
+			thread = new Thread(this::run, "J3D frames");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the scheduler thread and waits for it to end.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (lock) {
+			t = thread;
+			thread = null;
+			running = false;
+			lock.notifyAll();
+		}
+		if (t != null && t != Thread.currentThread()) {
+			LockSupport.unpark(t);
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Pauses the animation, for example while the view is hidden. Nothing is
+	 * updated or drawn until {@link #resume()}.
+	 */
+	public void pause() {
+		synchronized (lock) {
+			paused = true;
+		}
+	}
+
+	/**
+	 * Resumes the animation. The time spent paused is not animated.
+	 */
+	public void resume() {
+		synchronized (lock) {
+			paused = false;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Checks whether the animation is paused.
+	 *
+	 * @return true if paused
+	 */
+	public boolean isPaused() {
+		synchronized (lock) {
+			return paused;
+		}
+	}
+
+	/**
+	 * Asks for a frame outside of the animation, for example after the
+	 * user moved the model. The frame is requested at once unless one is
+	 * pending; then it is requested when the pending one is drawn.
+	 */
+	public void requestRender() {
+		if (!requestFrame())
+			dirty = true;
+	}
+
+	/**
+	 * Reports the end of drawing a frame.
+	 *
+	 * @param nanos
+	 *            time spent drawing, in nanoseconds
+	 */
+	public void frameRendered(long nanos) {
+		long now = System.nanoTime();
+		synchronized (frameTimes) {
+			int i = frames++ % HISTORY;
+			frameTimes[i] = nanos;
+			frameEnds[i] = now;
+		}
+		pending.set(false);
+	}
+
+	/**
+	 * Returns the frame rate achieved over the last frames.
+	 *
+	 * @return frames per second, 0 before two frames were drawn
+	 */
+	public double getFps() {
+		synchronized (frameTimes) {
+			int n = Math.min(frames, HISTORY);
+			if (n < 2)
+				return 0;
+			long newest = frameEnds[(frames - 1) % HISTORY];
+			long oldest = frameEnds[(frames - n) % HISTORY];
+			return newest == oldest ? 0 : (n - 1) * 1e9 / (newest - oldest);
+		}
+	}
+
+	/**
+	 * Returns a percentile of the time spent drawing the last frames.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the frame time in milliseconds, 0 before a frame was drawn
+	 */
+	public double getFrameTime(double percentile) {
+		long t[];
+		synchronized (frameTimes) {
+			t = Arrays.copyOf(frameTimes, Math.min(frames, HISTORY));
+		}
+		if (t.length == 0)
+			return 0;
+		Arrays.sort(t);
+		int i = (int) Math.ceil(percentile / 100 * t.length) - 1;
+		return t[Math.max(0, Math.min(t.length - 1, i))] / 1e6;
+	}
+
+	/**
+	 * Returns the number of frames drawn.
+	 *
+	 * @return number of frames
+	 */
+	public long getFrames() {
+		synchronized (frameTimes) {
+			return frames;
+		}
+	}
+
+	/**
+	 * Returns the number of frames skipped because the previous one was
+	 * still being drawn.
+	 *
+	 * @return number of skipped frames
+	 */
+	public long getSkippedFrames() {
+		synchronized (frameTimes) {
+			return skipped;
+		}
+	}
+
+	/**
+	 * Requests a frame unless one is pending.
+	 *
+	 * @return true if requested
+	 */
+	private boolean requestFrame() {
+		if (!pending.compareAndSet(false, true)) {
+			if (System.nanoTime() - requested < FRAME_TIMEOUT)
+				return false;
+		}
+		requested = System.nanoTime();
+		dirty = false;
+		scene.render();
+		return true;
+	}
+
+	private void run() {
+		long last = System.nanoTime();
+		long next = last;
+		long backlog = 0;
+		while (true) {
+			synchronized (lock) {
+				if (!running)
+					return;
+				if (paused) {
+					while (paused && running) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					last = next = System.nanoTime();
+					backlog = 0;
+					continue;
+				}
+			}
+
+			long now = System.nanoTime();
+			backlog += now - last;
+			last = now;
+			boolean changed = false;
+			int steps = 0;
+			while (backlog >= step && steps < MAX_STEPS) {
+				changed |= scene.update(step / 1e9);
+				backlog -= step;
+				steps++;
+			}
+			if (backlog >= step)
+				backlog %= step;// overloaded, drop the late steps
+
+			if (changed || dirty) {
+				if (!requestFrame()) {
+					synchronized (frameTimes) {
+						skipped++;
+					}
+				}
+			}
+
+			next += period;
+			if (next < now - period)
+				next = now;// too late, start again from now
+			long wait = next - System.nanoTime();
+			if (wait > 0)
+				LockSupport.parkNanos(this, wait);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package j3d;
+
+/**
+ * Draws lines into a pixel array with an integer DDA. Points are snapped to
+ * integer pixels like {@code Graphics.drawLine}, and both end points are
+ * drawn. The pixels of a line do not depend on the clip rectangle, so a line
+ * drawn in pieces through several clip rectangles is the same as the line
+ * drawn at once.
+ *
+ * @author Yizhuan Yu
+ */
+final class LineRasterizer {
+
+	/**
+	 * Coordinates beyond this are not drawn.
+	 */
+	private static final float LIMIT = 1 << 24;
+
+	private LineRasterizer() {
+	}
+
+	/**
+	 * Draws a line.
+	 *
+	 * @param pixels
+	 *            the pixels, row by row
+	 * @param depth
+	 *            the depth buffer, or null to draw without depth test
+	 * @param stride
+	 *            number of pixels in a row
+	 * @param cx0
+	 *            left of the clip rectangle
+	 * @param cy0
+	 *            top of the clip rectangle
+	 * @param cx1
+	 *            right of the clip rectangle, exclusive
+	 * @param cy1
+	 *            bottom of the clip rectangle, exclusive
+	 * @param fx0
+	 *            x of the starting point
+	 * @param fy0
+	 *            y of the starting point
+	 * @param fz0
+	 *            depth of the starting point
+	 * @param fx1
+	 *            x of the end point
+	 * @param fy1
+	 *            y of the end point
+	 * @param fz1
+	 *            depth of the end point
+	 * @param rgb
+	 *            the color
+	 */
+	static void drawLine(int pixels[], int depth[], int stride, int cx0,
+			int cy0, int cx1, int cy1, float fx0, float fy0, float fz0,
+			float fx1, float fy1, float fz1, int rgb) {
+		if (!(Math.abs(fx0) < LIMIT && Math.abs(fy0) < LIMIT
+				&& Math.abs(fx1) < LIMIT && Math.abs(fy1) < LIMIT))
+			return;
+		int x0 = (int) fx0, y0 = (int) fy0, x1 = (int) fx1, y1 = (int) fy1;
+		if ((x0 < cx0 && x1 < cx0) || (x0 >= cx1 && x1 >= cx1)
+				|| (y0 < cy0 && y1 < cy0) || (y0 >= cy1 && y1 >= cy1))
+			return;
+		int dx = x1 - x0, dy = y1 - y0;
+		int adx = dx < 0 ? -dx : dx, ady = dy < 0 ? -dy : dy;
+		boolean xMajor = adx >= ady;
+		int n = xMajor ? adx : ady;
+
+		// step along the major axis, minor axis and depth in 16.16 fixed
+		int ma0 = xMajor ? x0 : y0;
+		int mi0 = xMajor ? y0 : x0;
+		int mstep = (xMajor ? dx : dy) < 0 ? -1 : 1;
+		long minorStep = n == 0 ? 0 : ((long) (xMajor ? dy : dx) << 16) / n;
+		int z0 = (int) (fz0 * 65536), z1 = (int) (fz1 * 65536);
+		long zStep = n == 0 ? 0 : ((long) z1 - z0) / n;
+
+		// range of steps inside the clip along the major axis
+		int lo = xMajor ? cx0 : cy0, hi = (xMajor ? cx1 : cy1) - 1;
+		int minLo = xMajor ? cy0 : cx0, minHi = (xMajor ? cy1 : cx1) - 1;
+		int k0, k1;
+		if (mstep > 0) {
+			k0 = Math.max(0, lo - ma0);
+			k1 = Math.min(n, hi - ma0);
+		} else {
+			k0 = Math.max(0, ma0 - hi);
+			k1 = Math.min(n, ma0 - lo);
+		}
+
+		long minor = ((long) mi0 << 16) + 0x8000 + minorStep * k0;
+		long z = z0 + zStep * k0;
+		int ma = ma0 + mstep * k0;
+		for (int k = k0; k <= k1; k++) {
+			int mi = (int) (minor >> 16);
+			if (mi >= minLo && mi <= minHi) {
+				int p = xMajor ? mi * stride + ma : ma * stride + mi;
+				if (depth == null) {
+					pixels[p] = rgb;
+				} else if ((int) z >= depth[p]) {
+					depth[p] = (int) z;
+					pixels[p] = rgb;
+				}
+			}
+			minor += minorStep;
+			z += zStep;
+			ma += mstep;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package j3d;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of loaded models. A model is stored in
+ * {@link BinaryModelFormat} under the SHA-256 hash of the OBJ file content,
+ * so a file loaded a second time is not parsed again, and a changed file is
+ * never served from a stale entry.
+ *
+ * @author Yizhuan Yu
+ */
+public class ModelCache {
+
+	/**
+	 * Extension of the cache files.
+	 */
+	private static final String EXTENSION = ".j3d";
+
+	private static final long MAP_WINDOW = 1L << 30;
+
+	private final Path dir;
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param dir
+	 *            the cache directory, created when missing
+	 */
+	public ModelCache(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the cache directory.
+	 *
+	 * @return the cache directory
+	 */
+	public Path getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Loads a model, from the cache if possible. The model returned is
+	 * compressed and its boundaries are set.
+	 *
+	 * @param obj
+	 *            the OBJ file
+	 * @return the model
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	public ObjModel3D load(Path obj) throws IOException,
+			ObjFileFormatException {
+		Path entry = dir.resolve(hash(obj) + EXTENSION);
+		if (Files.isRegularFile(entry)) {
+			try {
+				return BinaryModelFormat.read(entry,
+						BinaryModelFormat.VERSION);
+			} catch (IOException | ObjFileFormatException e) {
+				// older version or damaged, rebuild it
+			}
+		}
+
+		ObjModel3D m = new ObjModel3D();
+		m.load(obj);
+		m.findBoundary();
+		m.compress();
+
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, "model", ".tmp");
+		try {
+			BinaryModelFormat.write(m, tmp);
+			try {
+				Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the hex SHA-256 hash of the content of a file.
+	 *
+	 * @param path
+	 *            the file
+	 * @return the hash
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 */
+	static String hash(Path path) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+				MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY,
+						pos, Math.min(MAP_WINDOW, size - pos));
+				md.update(b);
+			}
+		}
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : md.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,39 @@
+package j3d;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of loading a model. The duration of the event is
+ * the parsing of the model.
+ *
+ * @author Yizhuan Yu
+ */
+@Name("j3d.ModelLoad")
+@Label("Model Load")
+@Category("J3D")
+@Description("An OBJ model parsed into memory")
+public class ModelLoadEvent extends jdk.jfr.Event {
+
+	@Label("Source")
+	public String source;
+
+	@Label("Parallel")
+	public boolean parallel;
+
+	@Label("Vertices")
+	public int vertices;
+
+	@Label("Connections")
+	public int connections;
+
+	@Label("Faces")
+	public int faces;
+
+	@Label("Allocated")
+	@DataAmount
+	public long allocated;
+}
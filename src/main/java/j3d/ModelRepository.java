@@ -0,0 +1,397 @@
+package j3d;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Models shared by several views, keyed by the URL they are loaded from,
+ * the cache they are read through and the preparation asked for,
+ * renumbered or quantized. A model is loaded once however many
+ * views ask for it the same way, even at the same time: later requests wait
+ * for the load already running. Each view gets a model of its own to
+ * transform, sharing the vertices, connections, faces, detail levels and
+ * pick indices of the loaded one.
+ * <p>
+ * The repository holds models up to a number of bytes; beyond, the least
+ * recently requested models are dropped, to be loaded again when next asked
+ * for. Views keep the models they already have.
+ *
+ * @author Yizhuan Yu
+ */
+public class ModelRepository {
+
+	/**
+	 * What a model is loaded from and how.
+	 */
+	private static final class Key {
+		final String url;
+		final Path cache;
+		final boolean optimizeLayout, quantize;
+
+		Key(URL url, ModelCache cache, boolean optimizeLayout,
+				boolean quantize) {
+			this.url = url.toExternalForm();
+			this.cache = cache == null ? null : cache.getDirectory()
+					.toAbsolutePath().normalize();
+			this.optimizeLayout = optimizeLayout;
+			this.quantize = quantize;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return url.equals(k.url) && Objects.equals(cache, k.cache)
+					&& optimizeLayout == k.optimizeLayout
+					&& quantize == k.quantize;
+		}
+
+		@Override
+		public int hashCode() {
+			return (url.hashCode() * 31 + Objects.hashCode(cache)) * 4
+					+ (optimizeLayout ? 2 : 0) + (quantize ? 1 : 0);
+		}
+	}
+
+	/**
+	 * A model loaded or loading.
+	 */
+	private static final class Entry {
+		final CompletableFuture<ObjModel3D> model = new CompletableFuture<>();
+		long bytes;
+		boolean loaded;
+	}
+
+	private final ObjModelLoader loader;
+	private final long maxBytes;
+	private volatile int detailLevels;
+
+	/**
+	 * Models by key, least recently requested first.
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private long bytes;
+	private long hits, misses, evictions, loads, failures;
+	private long loadNanos, maxLoadNanos;
+
+	/**
+	 * Constructs a repository loading models with its own loader.
+	 *
+	 * @param maxBytes
+	 *            memory held by the models, in bytes
+	 */
+	public ModelRepository(long maxBytes) {
+		this(new ObjModelLoader(), maxBytes);
+	}
+
+	/**
+	 * Constructs a repository.
+	 *
+	 * @param loader
+	 *            the loader of the models
+	 * @param maxBytes
+	 *            memory held by the models, in bytes
+	 */
+	public ModelRepository(ObjModelLoader loader, long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("bad size: " + maxBytes);
+		this.loader = loader;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the loader of the models.
+	 *
+	 * @return the loader
+	 */
+	public ObjModelLoader getLoader() {
+		return loader;
+	}
+
+	/**
+	 * Returns the memory the models may hold.
+	 *
+	 * @return size in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the number of detail levels built for the models loaded from now
+	 * on.
+	 *
+	 * @param levels
+	 *            number of levels, 0 for none
+	 * @see ObjModel3D#buildDetailLevels(int)
+	 */
+	public void setDetailLevels(int levels) {
+		this.detailLevels = levels;
+	}
+
+	/**
+	 * Returns a model loaded from a file.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 * @throws IOException
+	 *             thrown when the path cannot be turned into a URL.
+	 */
+	public CompletableFuture<ObjModel3D> get(Path path,
+			ObjModelLoader.ProgressListener listener) throws IOException {
+		return get(path, null, listener);
+	}
+
+	/**
+	 * Returns a model loaded from a file through a cache.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @param cache
+	 *            the cache to read the file through, or null for the one of
+	 *            the loader
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 * @throws IOException
+	 *             thrown when the path cannot be turned into a URL.
+	 */
+	public CompletableFuture<ObjModel3D> get(Path path, ModelCache cache,
+			ObjModelLoader.ProgressListener listener) throws IOException {
+		return get(path, cache, false, false, listener);
+	}
+
+	/**
+	 * Returns a model loaded from a file through a cache and prepared for
+	 * drawing.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @param cache
+	 *            the cache to read the file through, or null for the one of
+	 *            the loader
+	 * @param optimizeLayout
+	 *            true to renumber the vertices for faster drawing, see
+	 *            {@link ObjModel3D#optimizeLayout()}
+	 * @param quantize
+	 *            true to quantize the vertices, see
+	 *            {@link ObjModel3D#quantize()}
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 * @throws IOException
+	 *             thrown when the path cannot be turned into a URL.
+	 */
+	public CompletableFuture<ObjModel3D> get(Path path, ModelCache cache,
+			boolean optimizeLayout, boolean quantize,
+			ObjModelLoader.ProgressListener listener) throws IOException {
+		return get(path.toAbsolutePath().normalize().toUri().toURL(), cache,
+				optimizeLayout, quantize, listener);
+	}
+
+	/**
+	 * Returns a model loaded from a URL.
+	 *
+	 * @param url
+	 *            the OBJ model
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 */
+	public CompletableFuture<ObjModel3D> get(URL url,
+			ObjModelLoader.ProgressListener listener) {
+		return get(url, null, listener);
+	}
+
+	/**
+	 * Returns a model loaded from a URL through a cache. Models read
+	 * through different caches are held apart.
+	 *
+	 * @param url
+	 *            the OBJ model
+	 * @param cache
+	 *            the cache to read files through, or null for the one of
+	 *            the loader
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 */
+	public CompletableFuture<ObjModel3D> get(URL url, ModelCache cache,
+			ObjModelLoader.ProgressListener listener) {
+		return get(url, cache, false, false, listener);
+	}
+
+	/**
+	 * Returns a model loaded from a URL through a cache and prepared for
+	 * drawing. Models read through different caches or prepared differently
+	 * are held apart.
+	 *
+	 * @param url
+	 *            the OBJ model
+	 * @param cache
+	 *            the cache to read files through, or null for the one of
+	 *            the loader
+	 * @param optimizeLayout
+	 *            true to renumber the vertices for faster drawing, see
+	 *            {@link ObjModel3D#optimizeLayout()}
+	 * @param quantize
+	 *            true to quantize the vertices, see
+	 *            {@link ObjModel3D#quantize()}
+	 * @param listener
+	 *            told about the progress if this request loads the model,
+	 *            or null
+	 * @return the future model, which may be transformed but must not be
+	 *         changed otherwise
+	 */
+	public CompletableFuture<ObjModel3D> get(URL url, ModelCache cache,
+			boolean optimizeLayout, boolean quantize,
+			ObjModelLoader.ProgressListener listener) {
+		if (cache == null)
+			cache = loader.getCache();
+		Key key = new Key(url, cache, optimizeLayout, quantize);
+		Entry e;
+		boolean load = false;
+		synchronized (entries) {
+			e = entries.get(key);
+			if (e != null) {
+				hits++;
+			} else {
+				misses++;
+				e = new Entry();
+				entries.put(key, e);
+				load = true;
+			}
+		}
+		if (load)
+			load(key, e, url, cache, listener);
+		return e.model.thenApply(ObjModel3D::share);
+	}
+
+	/**
+	 * Loads a model into its entry.
+	 */
+	private void load(Key key, Entry e, URL url, ModelCache cache,
+			ObjModelLoader.ProgressListener listener) {
+		long start = System.nanoTime();
+		int levels = detailLevels;
+		loader.load(url, cache, listener).thenApply(m -> {
+			if (key.optimizeLayout)
+				m.optimizeLayout();
+			if (levels > 0)
+				m.buildDetailLevels(levels);
+			if (key.quantize)
+				m.quantize();
+			return m;
+		}).whenComplete((m, t) -> {
+			loaded(key, e, m, System.nanoTime() - start);
+			if (t != null)
+				e.model.completeExceptionally(t);
+			else
+				e.model.complete(m);
+		});
+	}
+
+	/**
+	 * Accounts for a finished load.
+	 */
+	private void loaded(Key key, Entry e, ObjModel3D m, long nanos) {
+		synchronized (entries) {
+			loadNanos += nanos;
+			maxLoadNanos = Math.max(maxLoadNanos, nanos);
+			if (m == null) {
+				failures++;
+				entries.remove(key, e);// try again next time
+				return;
+			}
+			loads++;
+			if (entries.get(key) != e)
+				return;// removed while loading
+			e.bytes = m.getMemoryUsage();
+			e.loaded = true;
+			bytes += e.bytes;
+			evict(e);
+		}
+	}
+
+	/**
+	 * Drops the least recently requested models until the others fit in
+	 * the limit, keeping a model just loaded.
+	 */
+	private void evict(Entry keep) {
+		Iterator<Entry> i = entries.values().iterator();
+		while (bytes > maxBytes && i.hasNext()) {
+			Entry e = i.next();
+			if (e == keep || !e.loaded)
+				continue;
+			i.remove();
+			bytes -= e.bytes;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops a model, however read and prepared, to be loaded again when next
+	 * asked for.
+	 *
+	 * @param url
+	 *            the URL of the model
+	 */
+	public void remove(URL url) {
+		String u = url.toExternalForm();
+		synchronized (entries) {
+			Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry<Key, Entry> k = i.next();
+				if (!k.getKey().url.equals(u))
+					continue;
+				i.remove();
+				if (k.getValue().loaded)
+					bytes -= k.getValue().bytes;
+			}
+		}
+	}
+
+	/**
+	 * Drops all models.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Returns the figures of the repository.
+	 *
+	 * @return the figures so far
+	 */
+	public RepositoryStatistics getStatistics() {
+		synchronized (entries) {
+			return new RepositoryStatistics(hits, misses, evictions, loads,
+					failures, loadNanos / 1e6, maxLoadNanos / 1e6,
+					entries.size(), bytes);
+		}
+	}
+}
@@ -0,0 +1,457 @@
+package j3d;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import j3d.PipelineMetrics.Stage;
+
+/**
+ * A model as shown by {@link Obj3dApplet} and {@link Obj3dCanvas}: how it is
+ * turned by the animation and the mouse, its loading, and the drawing of a
+ * frame, with the vertex or connection under the mouse, the controls, the
+ * load progress and the frame rate. The hosts only pass their events on and
+ * say when to draw.
+ * <p>
+ * Frames are drawn on one thread at a time; the other methods may be called
+ * from any thread. The view is shared as immutable {@link ViewState}s, so
+ * drawing takes no lock to read it.
+ *
+ * @author Yizhuan Yu
+ */
+final class ModelView {
+
+	/**
+	 * Rotation around each axis while animating, in degrees per second.
+	 */
+	private static final double SPIN = 62.5;
+
+	private final Component host;
+	private final Runnable requestRender;
+
+	private volatile boolean bAnimate = true;
+	private volatile ObjModel3D model3D;
+	private volatile String message;
+	private float modelSize;
+	private volatile boolean hiddenLines;
+	private volatile float scalefudge = 1;
+
+	/**
+	 * Bytes of the model loaded so far, -1 when not loading, and the size of
+	 * the model, -1 if not known.
+	 */
+	private volatile long loadedBytes = -1, totalBytes = -1;
+
+	private volatile long lastInteraction;
+	private volatile boolean coarse;
+	private volatile int mouseX = -1, mouseY = -1;
+	private int prevx, prevy;
+
+	private int pickedVertex = -1, pickedConnection = -1;
+	private final Point3D pick[] = new Point3D[2];
+	private final Point3D screen[] = new Point3D[2];
+
+	private final Transformer3D transformer = new Transformer3D();
+
+	/**
+	 * The view, changed by the animation and the mouse, read once per frame.
+	 */
+	private final AtomicReference<ViewState> view = new AtomicReference<>(
+			new ViewState().rotate(0, 20, 0).rotate(20, 0, 0));
+
+	private final Paint3D painter = new Paint3D();
+	private volatile RasterPaint3D raster = new RasterPaint3D();
+	private volatile SolidPaint3D solid;
+
+	/**
+	 * Constructs a view drawing lines with {@link RasterPaint3D}.
+	 *
+	 * @param host
+	 *            the component shown in, for its colors and size
+	 * @param requestRender
+	 *            asks the host for a frame
+	 */
+	ModelView(Component host, Runnable requestRender) {
+		this.host = host;
+		this.requestRender = requestRender;
+	}
+
+	/**
+	 * Sets the renderer.
+	 *
+	 * @param renderer
+	 *            "raster" for {@link RasterPaint3D}, "java2d" for
+	 *            {@link Paint3D} or "solid" for {@link SolidPaint3D}
+	 * @param depthBuffer
+	 *            true to hide lines with a depth buffer, for "raster"
+	 */
+	void setRenderer(String renderer, boolean depthBuffer) {
+		raster = null;
+		solid = null;
+		if ("solid".equals(renderer)) {
+			solid = new SolidPaint3D();
+		} else if (!"java2d".equals(renderer)) {
+			RasterPaint3D rp = new RasterPaint3D();
+			rp.setDepthBuffer(depthBuffer);
+			raster = rp;
+		}
+		requestRender.run();
+	}
+
+	/**
+	 * Sets the size of the model, relative to the host.
+	 *
+	 * @param scale
+	 *            1 for the default size
+	 */
+	void setScale(float scale) {
+		scalefudge = scale;
+		requestRender.run();
+	}
+
+	/**
+	 * Sets whether the model turns by itself.
+	 *
+	 * @param animate
+	 *            true to animate
+	 */
+	void setAnimate(boolean animate) {
+		bAnimate = animate;
+		requestRender.run();
+	}
+
+	/**
+	 * Sets whether lines behind the model are hidden. Takes effect with the
+	 * next model set.
+	 *
+	 * @param hidden
+	 *            true to hide lines behind the model
+	 */
+	void setHiddenLineRemoval(boolean hidden) {
+		hiddenLines = hidden;
+	}
+
+	/**
+	 * Sets the model to show. The model must not be changed afterwards,
+	 * except by the view.
+	 *
+	 * @param m
+	 *            the model, with its boundaries found
+	 */
+	void setModel(ObjModel3D m) {
+		m.setHiddenLineRemoval(hiddenLines);
+		modelSize = Math.max(m.xmax - m.xmin, Math.max(m.ymax - m.ymin,
+				m.zmax - m.zmin));
+		model3D = m;// publishes modelSize too
+		message = null;
+		requestRender.run();
+	}
+
+	/**
+	 * Shows a message instead of the model, for example when it could not be
+	 * loaded.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	void setMessage(String message) {
+		model3D = null;
+		this.message = message;
+		requestRender.run();
+	}
+
+	/**
+	 * Shows a model of a repository, loading it in the background if the
+	 * repository does not hold it yet. The model is drawn as it loads.
+	 *
+	 * @param url
+	 *            the model
+	 * @param models
+	 *            the repository
+	 * @param cache
+	 *            the cache to read the model through, or null for the one of
+	 *            the loader of the repository
+	 * @param optimizeLayout
+	 *            true to renumber the vertices of the model once loaded
+	 * @param quantize
+	 *            true to quantize the model once loaded
+	 * @return the future model, shown when done
+	 */
+	CompletableFuture<ObjModel3D> load(URL url, ModelRepository models,
+			ModelCache cache, boolean optimizeLayout, boolean quantize) {
+		loadedBytes = 0;
+		totalBytes = -1;
+		setMessage("Loading...");
+		return models.get(url, cache, optimizeLayout, quantize,
+				this::progress).whenComplete(this::loaded);
+	}
+
+	/**
+	 * Shows the model read so far.
+	 */
+	private void progress(long read, long total, ObjModel3D preview) {
+		loadedBytes = read;
+		totalBytes = total;
+		if (preview != null && preview.getNumberOfVertices() > 0)
+			setModel(preview);
+		else
+			requestRender.run();
+	}
+
+	/**
+	 * Shows the model once loaded, or why it could not be.
+	 */
+	private void loaded(ObjModel3D m, Throwable e) {
+		if (e == null)
+			setModel(m);
+		else
+			setMessage("Error in model: "
+					+ (e instanceof CompletionException ? e.getCause() : e));
+		loadedBytes = -1;// after the preview is replaced
+		requestRender.run();
+	}
+
+	/**
+	 * Checks whether the next frame covers the whole host, so that the
+	 * background need not be cleared first.
+	 */
+	boolean isOpaque() {
+		return model3D != null && (raster != null || solid != null);
+	}
+
+	/**
+	 * Turns the model by the animation.
+	 *
+	 * @param seconds
+	 *            time since the last update
+	 * @return true if a frame should be drawn
+	 * @see FrameScheduler.Scene#update(double)
+	 */
+	boolean update(double seconds) {
+		if (!bAnimate)
+			return coarse && !isInteracting();// back to full detail
+		double angle = SPIN * seconds;
+		view.updateAndGet(v -> v.rotate(angle, angle, angle));
+		return true;
+	}
+
+	/**
+	 * Starts a drag, or toggles the animation in the top left corner.
+	 */
+	void mouseDown(int x, int y) {
+		prevx = x;
+		prevy = y;
+		lastInteraction = System.currentTimeMillis();
+		if (x < 10 && y < 10) {
+			bAnimate = !bAnimate;
+			requestRender.run();
+		}
+	}
+
+	/**
+	 * Turns the model by a drag.
+	 */
+	void mouseDrag(int x, int y) {
+		int width = Math.max(1, host.getWidth());
+		int height = Math.max(1, host.getHeight());
+		float xtheta = (prevy - y) * 360.0f / width;
+		float ytheta = (x - prevx) * 360.0f / height;
+		view.updateAndGet(v -> v.rotate(xtheta, ytheta, 0));
+		lastInteraction = System.currentTimeMillis();
+		requestRender.run();
+		prevx = x;
+		prevy = y;
+	}
+
+	/**
+	 * Moves the model on screen by a drag.
+	 */
+	void mousePan(int x, int y) {
+		int dx = x - prevx, dy = y - prevy;
+		view.updateAndGet(v -> v.pan(dx, dy));
+		lastInteraction = System.currentTimeMillis();
+		requestRender.run();
+		prevx = x;
+		prevy = y;
+	}
+
+	/**
+	 * Zooms in or out.
+	 *
+	 * @param factor
+	 *            more than 1 to zoom in, less than 1 to zoom out
+	 */
+	void zoom(double factor) {
+		view.updateAndGet(v -> v.zoom(factor));
+		lastInteraction = System.currentTimeMillis();
+		requestRender.run();
+	}
+
+	/**
+	 * Sets the point whose vertex or connection is highlighted.
+	 *
+	 * @param x
+	 *            x coordinate of the mouse, -1 when outside
+	 * @param y
+	 *            y coordinate of the mouse, -1 when outside
+	 */
+	void mouseMove(int x, int y) {
+		mouseX = x;
+		mouseY = y;
+		requestRender.run();
+	}
+
+	/**
+	 * Draws a frame.
+	 *
+	 * @param g
+	 *            the graphics to draw to
+	 * @param width
+	 *            width of the host
+	 * @param height
+	 *            height of the host
+	 * @param s
+	 *            the scheduler whose frame rate is shown, or null
+	 */
+	void draw(Graphics g, int width, int height, FrameScheduler s) {
+		ObjModel3D model = model3D;// one model for the whole frame
+		if (model != null) {
+			FrameEvent event = new FrameEvent();
+			event.begin();
+
+			float xfac = (float) transformer.fit(model, view.get(), width,
+					height, 0.7 * scalefudge);
+
+			// a simplified model while dragging or when drawn small
+			float projected = xfac * modelSize;
+			boolean interacting = isInteracting();
+			ObjModel3D m = model.selectDetailLevel(projected, interacting);
+			coarse = interacting
+					&& m != model.selectDetailLevel(projected, false);
+
+			m.setTransformed(false);
+			m.transform(transformer);
+
+			SolidPaint3D sp = solid;
+			RasterPaint3D rp = raster;
+			if (sp != null) {
+				sp.setBackground(host.getBackground());
+				sp.paint(g, m, transformer, width, height);
+			} else if (rp != null) {
+				rp.setBackground(host.getBackground());
+				rp.paint(g, m, width, height);
+			} else {
+				painter.paint(g, m);
+			}
+
+			if (loadedBytes < 0)// no picking in a partly loaded model
+				drawPicked(g, model, height);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.renderer = sp != null ? "solid" : rp != null ? "raster"
+						: "java2d";
+				event.vertices = m.getNumberOfVertices();
+				event.connections = m.getNumberOfConnections();
+				event.simplified = m != model;
+				event.transformTime = PipelineMetrics.lastNanos(Stage.TRANSFORM);
+				event.rasterizeTime = PipelineMetrics.lastNanos(Stage.RASTERIZE);
+				if (sp != null || rp != null)
+					event.blitTime = PipelineMetrics.lastNanos(Stage.BLIT);
+				event.commit();
+			}
+		}
+
+		g.setColor(host.getForeground());
+		g.draw3DRect(0, 0, 10, 10, true);
+		g.drawString("Toggle animation", 20, 10);
+		g.drawString("Try dragging the object...", width - 160, 10);
+
+		String msg = message;
+		if (model == null && msg != null)
+			g.drawString(msg, 10, 40);
+
+		long loaded = loadedBytes, total = totalBytes;
+		if (loaded >= 0)
+			drawProgress(g, loaded, total, width, height);
+
+		if (s != null && s.getFrames() > 1)
+			g.drawString(String.format("%.1f fps, %.1f ms (99%%: %.1f ms)",
+					s.getFps(), s.getFrameTime(50), s.getFrameTime(99)), 3,
+					height - 20);
+	}
+
+	/**
+	 * Picks and highlights the vertex or connection under the mouse. Picking
+	 * is done here rather than on the event thread, with the transformation
+	 * of the frame. The indices picked may be those of a model shown before,
+	 * while dragging, and are checked against the model.
+	 */
+	private void drawPicked(Graphics g, ObjModel3D model, int height) {
+		int x = mouseX, y = mouseY;
+		if (x < 0) {
+			pickedVertex = pickedConnection = -1;
+			return;
+		}
+		if (!isInteracting()) {
+			pickedVertex = model.pickVertex(transformer, x, y, 4);
+			pickedConnection = pickedVertex >= 0 ? -1 : model.pickConnection(
+					transformer, x, y, 3);
+		}
+		int p1, p2;
+		String label;
+		if (pickedVertex >= 0 && pickedVertex < model.getNumberOfVertices()) {
+			p1 = p2 = pickedVertex;
+			label = "vertex " + (p1 + 1);
+		} else if (pickedConnection >= 0
+				&& pickedConnection < model.getNumberOfConnections()) {
+			p1 = model.getConnectionStart(pickedConnection);
+			p2 = model.getConnectionEnd(pickedConnection);
+			label = "connection " + (p1 + 1) + " - " + (p2 + 1);
+		} else {
+			return;
+		}
+		pick[0] = model.getOriginalVertex(p1);
+		pick[1] = model.getOriginalVertex(p2);
+		transformer.transform(pick, screen, 2);
+		int x1 = (int) screen[0].x, y1 = (int) screen[0].y;
+		int x2 = (int) screen[1].x, y2 = (int) screen[1].y;
+		g.setColor(Color.red);
+		if (p1 == p2)
+			g.drawRect(x1 - 2, y1 - 2, 4, 4);
+		else
+			g.drawLine(x1, y1, x2, y2);
+		g.drawString(label, 3, height - 5);
+	}
+
+	/**
+	 * Draws how far the model is loaded.
+	 */
+	private void drawProgress(Graphics g, long loaded, long total, int width,
+			int height) {
+		int w = Math.min(200, width - 20), x = (width - w) / 2, y = height - 40;
+		String label;
+		if (total > 0) {
+			int done = (int) (w * Math.min(1.0, (double) loaded / total));
+			g.setColor(Color.lightGray);
+			g.fillRect(x, y, done, 8);
+			label = String.format("Loading... %d%%", loaded * 100 / total);
+		} else {
+			label = String.format("Loading... %.1f MB", loaded / 1048576.0);
+		}
+		g.setColor(host.getForeground());
+		g.drawRect(x, y, w, 8);
+		g.drawString(label, x, y - 4);
+	}
+
+	/**
+	 * Checks whether the user moved the model in the last quarter second.
+	 */
+	private boolean isInteracting() {
+		return System.currentTimeMillis() - lastInteraction < 250;
+	}
+}
@@ -4,35 +4,42 @@ import java.applet.Applet;
 import java.awt.Dimension;
 import java.awt.Event;
 import java.awt.Graphics;
-import java.io.IOException;
-import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Animate a 3D model, which supports drag and rotate.
  *
  * @author Yizhuan Yu
  */
-public class Obj3dApplet extends Applet implements Runnable {
+public class Obj3dApplet extends Applet implements FrameScheduler.Scene {
 
 	private static final long serialVersionUID = 7210927153921359331L;
 
-	boolean bAnimate = true;
-	private Thread j3dThread = null;
-	private ObjModel3D model3D;
-	private boolean painted = true;
-	private float xfac;
-	private int prevx, prevy;
+	private FrameScheduler scheduler;
+	private double fps = 30;
+	private final ModelView view = new ModelView(this, this::requestRender);
 
-	private float scalefudge = 1;
-	private long refreshRate = 80L;
+	/**
+	 * The model being loaded.
+	 */
+	private CompletableFuture<ObjModel3D> loading;
+
+	/**
+	 * Models shared by the applets of this JVM, up to a quarter of the heap.
+	 */
+	private static final ModelRepository MODELS = new ModelRepository(
+			Runtime.getRuntime().maxMemory() / 4);
 
-	private Transformer3D transformer = new Transformer3D();
-	private Transformer3D animator = new Transformer3D();
-	private Transformer3D rotator = new Transformer3D();
+	static {
+		MODELS.setDetailLevels(4);
+	}
 
 	private String modelUrl = null;
-	private String message = null;
+	private String cacheDir = null;
+	private boolean optimizeLayout = false, quantize = false;
 
 	/**
 	 * {@inheritDoc}
@@ -43,15 +50,26 @@ public class Obj3dApplet extends Applet implements Runnable {
 
 		try {
 			modelUrl = getParameter("model");
-			scalefudge = Float.valueOf(getParameter("scale")).floatValue();
-			bAnimate = new Boolean(getParameter("animate"));
+			cacheDir = getParameter("cache");
+			optimizeLayout = "true".equals(getParameter("optimize"));
+			quantize = "true".equals(getParameter("quantize"));
+			view.setHiddenLineRemoval("true".equals(getParameter("hidden")));
+			view.setRenderer(getParameter("renderer"),
+					"true".equals(getParameter("zbuffer")));
+			view.setScale(Float.valueOf(getParameter("scale")).floatValue());
+			view.setAnimate(new Boolean(getParameter("animate")));
 
 		} catch (Exception e) {
 			new IllegalArgumentException("Bad parameters.", e);
 		}
-
-		animator.rotY(20);
-		animator.rotX(20);
+		// on its own, so that a missing scale does not lose the rate
+		try {
+			String f = getParameter("fps");
+			if (f != null)
+				fps = Double.parseDouble(f);
+		} catch (NumberFormatException e) {
+			// keep the default rate
+		}
 
 		if (modelUrl == null) {
 			modelUrl = "model.obj";
@@ -67,37 +85,16 @@ public class Obj3dApplet extends Applet implements Runnable {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void run() {
-		while (j3dThread != null) {
-
-			try {
-
-				if (bAnimate) {
-
-					repaint();
-
-					Thread.sleep(refreshRate);
-
-					rotator.reset();
-
-					rotator.rotX(5.0f);
-					rotator.rotY(5.0f);
-					rotator.rotZ(5.0f);
-
-					animator.mult(rotator);
-					if (painted) {
-						painted = false;
-						repaint();
-					}
-
-				} else {
-					Thread.sleep(refreshRate);
-				}
+	public boolean update(double seconds) {
+		return view.update(seconds);
+	}
 
-			} catch (InterruptedException e) {
-				stop();
-			}
-		}
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void render() {
+		repaint();
 	}
 
 	/**
@@ -105,51 +102,24 @@ public class Obj3dApplet extends Applet implements Runnable {
 	 */
 	@Override
 	public void start() {
-		if (model3D == null && message == null) {
-			if (j3dThread == null) {
-				j3dThread = new Thread(this, "J3D");
-				j3dThread.start();
-			}
+		if (scheduler == null) {
+			scheduler = new FrameScheduler(this, fps, 60);
+			scheduler.start();
+		} else {
+			scheduler.resume();
 		}
 
-		InputStream is = null;
-		try {
-			Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-
-			is = new URL(modelUrl).openStream();
-			ObjModel3D m = new ObjModel3D();
-			m.load(is);
-			m.findBoundary();// find boundary
-			m.compress();// compress model
-
-			model3D = m;
-
-			float xw = m.xmax - m.xmin;
-			float yw = m.ymax - m.ymin;
-			float zw = m.zmax - m.zmin;
-			if (yw > xw)
-				xw = yw;
-			if (zw > xw)
-				xw = zw;
-
-			Dimension size = getSize();
-			float f1 = size.width / xw;
-			float f2 = size.height / xw;
-			xfac = 0.7f * (f1 < f2 ? f1 : f2) * scalefudge;
-
-		} catch (Exception e) {
-			model3D = null;
-			message = e.toString();
-		} finally {
-			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+		if (loading == null) {
+			ModelCache cache = cacheDir != null ? new ModelCache(
+					Paths.get(cacheDir)) : null;
+			try {
+				loading = view.load(new URL(modelUrl), MODELS, cache,
+						optimizeLayout, quantize);
+			} catch (MalformedURLException e) {
+				view.setMessage("Error in model: " + e);
 			}
 		}
-		repaint();
+		requestRender();
 
 	}
 
@@ -158,18 +128,29 @@ public class Obj3dApplet extends Applet implements Runnable {
 	 */
 	@Override
 	public void stop() {
+		if (scheduler != null)
+			scheduler.pause();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public boolean mouseDown(Event e, int x, int y) {
-		prevx = x;
-		prevy = y;
-		if (x < 10 && y < 10) {
-			bAnimate = !bAnimate;
+	public void destroy() {
+		if (loading != null)
+			loading.cancel(false);
+		if (scheduler != null) {
+			scheduler.stop();
+			scheduler = null;
 		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean mouseDown(Event e, int x, int y) {
+		view.mouseDown(x, y);
 		return true;
 	}
 
@@ -178,19 +159,7 @@ public class Obj3dApplet extends Applet implements Runnable {
 	 */
 	@Override
 	public boolean mouseDrag(Event e, int x, int y) {
-		rotator.reset();
-		Dimension size = getSize();
-		float xtheta = (prevy - y) * 360.0f / size.width;
-		float ytheta = (x - prevx) * 360.0f / size.height;
-		rotator.rotX(xtheta);
-		rotator.rotY(ytheta);
-		animator.mult(rotator);
-		if (painted) {
-			painted = false;
-			repaint();
-		}
-		prevx = x;
-		prevy = y;
+		view.mouseDrag(x, y);
 		return true;
 	}
 
@@ -198,43 +167,55 @@ public class Obj3dApplet extends Applet implements Runnable {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void paint(Graphics g) {
-
-		Dimension size = getSize();
-
-		g.draw3DRect(0, 0, 10, 10, true);
-		g.drawString("Toggle animation", 20, 10);
-		g.drawString("Try dragging the object...", size.width - 160, 10);
-
-		if (model3D != null) {
-
-			transformer.reset();
-			transformer.translate(-(model3D.xmin + model3D.xmax) / 2,
-					-(model3D.ymin + model3D.ymax) / 2,
-					-(model3D.zmin + model3D.zmax) / 2);
-
-			transformer.mult(animator);
-
-			transformer.scale(xfac, -xfac, 16 * xfac / size.width);
-			transformer.translate(size.width / 2, size.height / 2, 8);
+	public boolean mouseMove(Event e, int x, int y) {
+		view.mouseMove(x, y);
+		return true;
+	}
 
-			model3D.setTransformed(false);
-			model3D.transform(transformer);
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean mouseExit(Event e, int x, int y) {
+		view.mouseMove(-1, -1);
+		return true;
+	}
 
-			new Paint3D().paint(g, model3D);
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(Graphics g) {
+		if (view.isOpaque())
+			paint(g);// the image covers the whole applet
+		else
+			super.update(g);
+	}
 
-			setPainted();
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void paint(Graphics g) {
 
-		} else if (message != null) {
-			g.drawString("Error in model:", 3, 20);
-			g.drawString(message, 10, 40);
-		}
+		long start = System.nanoTime();
+		Dimension size = getSize();
+		FrameScheduler s = scheduler;
+		view.draw(g, size.width, size.height, s);
+		if (s != null)
+			s.frameRendered(System.nanoTime() - start);
 
 	}
 
-	private synchronized void setPainted() {
-		painted = true;
-		notifyAll();
+	/**
+	 * Asks for the model to be drawn again.
+	 */
+	private void requestRender() {
+		FrameScheduler s = scheduler;
+		if (s != null)
+			s.requestRender();
+		else
+			repaint();
 	}
 
 }
@@ -0,0 +1,455 @@
+package j3d;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Animate a 3D model in a window, which supports drag and rotate, like
+ * {@link Obj3dApplet} without a browser. Dragging with the right button
+ * pans and the mouse wheel zooms.
+ * <p>
+ * Frames are drawn off screen into a {@link BufferStrategy} and flipped
+ * onto the screen, on a thread of their own: the event thread only records
+ * the mouse and asks for a frame, so a large model neither flickers nor
+ * blocks the input. Models are loaded in the background and drawn as they
+ * load, with a progress bar.
+ *
+ * <pre>
+ * java -cp j3d.jar j3d.Obj3dCanvas model=models/duck.obj [scale=1] [animate=true]
+ *      [renderer=raster|java2d|solid] [zbuffer=false] [hidden=false] [fps=30]
+ *      [cache=dir] [quantize=false] [optimize=false]
+ * </pre>
+ *
+ * @author Yizhuan Yu
+ */
+public class Obj3dCanvas extends Canvas implements FrameScheduler.Scene {
+
+	private static final long serialVersionUID = -3018574237329170934L;
+
+	private final ModelView view = new ModelView(this, this::requestRender);
+	private double fps = 30;
+	private volatile ModelCache cache;
+	private volatile boolean quantize, optimizeLayout;
+
+	private volatile FrameScheduler scheduler;
+	private Thread renderThread;
+	private final Object frameLock = new Object();
+	private boolean frameRequested, running;
+
+	/**
+	 * Constructs a canvas drawing lines with {@link RasterPaint3D}.
+	 */
+	public Obj3dCanvas() {
+		setBackground(Color.white);
+		setForeground(Color.black);
+		view.setMessage("Loading...");
+
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				view.mouseDown(e.getX(), e.getY());
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (e.isMetaDown())
+					view.mousePan(e.getX(), e.getY());
+				else
+					view.mouseDrag(e.getX(), e.getY());
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				view.zoom(Math.pow(1.1, -e.getPreciseWheelRotation()));
+			}
+
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				view.mouseMove(e.getX(), e.getY());
+			}
+
+			@Override
+			public void mouseExited(MouseEvent e) {
+				view.mouseMove(-1, -1);
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				requestRender();
+			}
+		});
+	}
+
+	/**
+	 * Sets the renderer.
+	 *
+	 * @param renderer
+	 *            "raster" for {@link RasterPaint3D}, "java2d" for
+	 *            {@link Paint3D} or "solid" for {@link SolidPaint3D}
+	 * @param depthBuffer
+	 *            true to hide lines with a depth buffer, for "raster"
+	 */
+	public void setRenderer(String renderer, boolean depthBuffer) {
+		view.setRenderer(renderer, depthBuffer);
+	}
+
+	/**
+	 * Sets the size of the model, relative to the window.
+	 *
+	 * @param scale
+	 *            1 for the default size
+	 */
+	public void setScale(float scale) {
+		view.setScale(scale);
+	}
+
+	/**
+	 * Sets whether the model turns by itself.
+	 *
+	 * @param animate
+	 *            true to animate
+	 */
+	public void setAnimate(boolean animate) {
+		view.setAnimate(animate);
+	}
+
+	/**
+	 * Sets the number of frames per second while animating.
+	 *
+	 * @param fps
+	 *            frames per second
+	 */
+	public void setTargetFps(double fps) {
+		this.fps = fps;
+		if (scheduler != null)
+			scheduler.setTargetFps(fps);
+	}
+
+	/**
+	 * Sets whether lines behind the model are hidden. Takes effect with the
+	 * next model set.
+	 *
+	 * @param hidden
+	 *            true to hide lines behind the model
+	 */
+	public void setHiddenLineRemoval(boolean hidden) {
+		view.setHiddenLineRemoval(hidden);
+	}
+
+	/**
+	 * Sets the cache models loaded from now on are read through.
+	 *
+	 * @param cache
+	 *            the cache, or null for the one of the loader of the
+	 *            repository
+	 */
+	public void setCache(ModelCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets whether models shown from now on are quantized to 16 bits per
+	 * coordinate once loaded.
+	 *
+	 * @param quantize
+	 *            true to quantize the models
+	 * @see ObjModel3D#quantize()
+	 */
+	public void setQuantized(boolean quantize) {
+		this.quantize = quantize;
+	}
+
+	/**
+	 * Sets whether the vertices of models shown from now on are renumbered
+	 * for faster drawing once loaded.
+	 *
+	 * @param optimize
+	 *            true to renumber the vertices
+	 * @see ObjModel3D#optimizeLayout()
+	 */
+	public void setOptimizeLayout(boolean optimize) {
+		this.optimizeLayout = optimize;
+	}
+
+	/**
+	 * Sets the model to show. The model must not be changed afterwards,
+	 * except by the canvas.
+	 *
+	 * @param m
+	 *            the model, with its boundaries found
+	 */
+	public void setModel(ObjModel3D m) {
+		view.setModel(m);
+	}
+
+	/**
+	 * Shows a message instead of the model, for example when it could not be
+	 * loaded.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public void setMessage(String message) {
+		view.setMessage(message);
+	}
+
+	/**
+	 * Starts animating and drawing.
+	 */
+	public void start() {
+		synchronized (frameLock) {
+			if (running)
+				return;
+			running = true;
+			renderThread = new Thread(this::renderLoop, "J3D render");
+			renderThread.setDaemon(true);
+			renderThread.start();
+		}
+		scheduler = new FrameScheduler(this, fps, 60);
+		scheduler.start();
+	}
+
+	/**
+	 * Stops animating and drawing.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (frameLock) {
+			running = false;
+			t = renderThread;
+			renderThread = null;
+			frameLock.notifyAll();
+		}
+		if (scheduler != null) {
+			scheduler.stop();
+			scheduler = null;
+		}
+		if (t != null && t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		createBufferStrategy(2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeNotify() {
+		stop();
+		super.removeNotify();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(Graphics g) {
+		requestRender();// drawn by the render thread
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void paint(Graphics g) {
+		requestRender();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean update(double seconds) {
+		return view.update(seconds);
+	}
+
+	/**
+	 * Wakes up the render thread.
+	 */
+	@Override
+	public void render() {
+		synchronized (frameLock) {
+			frameRequested = true;
+			frameLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Draws frames as they are requested, until stopped.
+	 */
+	private void renderLoop() {
+		while (true) {
+			synchronized (frameLock) {
+				while (running && !frameRequested) {
+					try {
+						frameLock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running)
+					return;
+				frameRequested = false;
+			}
+			long start = System.nanoTime();
+			try {
+				drawFrame();
+			} catch (RuntimeException e) {
+				e.printStackTrace();// keep drawing the next frames
+			}
+			FrameScheduler s = scheduler;
+			if (s != null)
+				s.frameRendered(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Draws a frame into the back buffer and shows it.
+	 */
+	private void drawFrame() {
+		BufferStrategy bs = getBufferStrategy();
+		int width = getWidth(), height = getHeight();
+		if (bs == null || !isDisplayable() || width <= 0 || height <= 0)
+			return;
+		do {
+			do {
+				Graphics g = bs.getDrawGraphics();
+				try {
+					draw(g, width, height);
+				} finally {
+					g.dispose();
+				}
+			} while (bs.contentsRestored());
+			bs.show();
+		} while (bs.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+	}
+
+	private void draw(Graphics g, int width, int height) {
+		if (!view.isOpaque()) {
+			g.setColor(getBackground());
+			g.fillRect(0, 0, width, height);
+		}
+		view.draw(g, width, height, scheduler);
+	}
+
+	/**
+	 * Asks for the model to be drawn again.
+	 */
+	private void requestRender() {
+		FrameScheduler s = scheduler;
+		if (s != null)
+			s.requestRender();
+		else
+			render();
+	}
+
+	/**
+	 * Shows a model of a repository, loading it in the background if the
+	 * repository does not hold it yet. The model is drawn as it loads, and is
+	 * renumbered and quantized if asked for.
+	 *
+	 * @param url
+	 *            the model
+	 * @param models
+	 *            the repository
+	 * @return the future model, shown when done
+	 */
+	public CompletableFuture<ObjModel3D> load(URL url, ModelRepository models) {
+		return view.load(url, models, cache, optimizeLayout, quantize);
+	}
+
+	/**
+	 * Shows a model in a window.
+	 *
+	 * @param args
+	 *            the options as name=value: model, scale, animate, renderer,
+	 *            zbuffer, hidden, fps, cache, quantize and optimize
+	 */
+	public static void main(String[] args) {
+		Map<String, String> p = new HashMap<>();
+		for (String a : args) {
+			int i = a.indexOf('=');
+			if (i > 0)
+				p.put(a.substring(0, i), a.substring(i + 1));
+		}
+		String model = p.getOrDefault("model", "model.obj");
+
+		Obj3dCanvas canvas = new Obj3dCanvas();
+		try {
+			canvas.setRenderer(p.get("renderer"),
+					"true".equals(p.get("zbuffer")));
+			if (p.containsKey("scale"))
+				canvas.setScale(Float.parseFloat(p.get("scale")));
+			if (p.containsKey("animate"))
+				canvas.setAnimate(Boolean.parseBoolean(p.get("animate")));
+			if (p.containsKey("fps"))
+				canvas.setTargetFps(Double.parseDouble(p.get("fps")));
+			canvas.setHiddenLineRemoval("true".equals(p.get("hidden")));
+			if (p.containsKey("cache"))
+				canvas.setCache(new ModelCache(Paths.get(p.get("cache"))));
+			canvas.setQuantized("true".equals(p.get("quantize")));
+			canvas.setOptimizeLayout("true".equals(p.get("optimize")));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Bad parameters: " + e.getMessage());
+			System.exit(2);
+		}
+
+		Frame frame = new Frame("J3D - " + model);
+		frame.add(canvas);
+		frame.setSize(600, 600);
+		frame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				canvas.stop();
+				frame.dispose();
+			}
+		});
+		frame.setVisible(true);
+		canvas.start();
+
+		ModelRepository models = new ModelRepository(Runtime.getRuntime()
+				.maxMemory() / 4);
+		models.setDetailLevels(4);
+		try {
+			URL url = model.contains(":/") ? new URI(model).toURL() : Paths
+					.get(model).toUri().toURL();
+			canvas.load(url, models);
+		} catch (Exception e) {
+			canvas.setMessage("Error in model: " + e);
+		}
+	}
+}
@@ -9,7 +9,46 @@ package j3d;
 public class ObjFileFormatException extends Exception {
  	private static final long serialVersionUID = 3691863659146878237L;
 
+	private final int line;
+	private final int column;
+
 	public ObjFileFormatException(String s) {
 		super(s);
+		this.line = -1;
+		this.column = -1;
     }
- }
\ No newline at end of file
+
+	/**
+	 * Constructs an exception pointing at a position in the file.
+	 *
+	 * @param s
+	 *            the detail message
+	 * @param line
+	 *            line number, starting from 1
+	 * @param column
+	 *            column number, starting from 1
+	 */
+	public ObjFileFormatException(String s, int line, int column) {
+		super("line " + line + ", column " + column + ": " + s);
+		this.line = line;
+		this.column = column;
+	}
+
+	/**
+	 * Returns the line of the error.
+	 *
+	 * @return line number starting from 1, or -1 if unknown
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Returns the column of the error.
+	 *
+	 * @return column number starting from 1, or -1 if unknown
+	 */
+	public int getColumn() {
+		return column;
+	}
+ }
@@ -1,11 +1,14 @@
 package j3d;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StreamTokenizer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import j3d.PipelineMetrics.Stage;
 
 /**
  * A 3D model in OBJ format.
@@ -15,14 +18,27 @@ import java.io.StreamTokenizer;
 public class ObjModel3D {
 
 	/**
-	 * The original vertices.
+	 * The original vertices, one array per axis.
+	 */
+	private float orgX[], orgY[], orgZ[];
+
+	/**
+	 * The original vertices in 16 bits per coordinate, replacing
+	 * {@link #orgX}, {@link #orgY} and {@link #orgZ} once the model is
+	 * quantized.
+	 */
+	private QuantizedVertices quantized;
+
+	/**
+	 * The transformation including the dequantization, for the last
+	 * transformation of a quantized model.
 	 */
-	private Point3D orgVert[];
+	private Transformer3D quantMatrix;
 
 	/**
-	 * The transformed vertices.
+	 * The transformed vertices, one array per axis.
 	 */
-	private Point3D transformedVert[];
+	private float transX[], transY[], transZ[];
 
 	/**
 	 * Number of vertices.
@@ -36,9 +52,22 @@ public class ObjModel3D {
 
 	/**
 	 * Connections. Each point is held in 16 bits with starting point on left.
+	 * Only used while all connected points fit in 16 bits.
 	 */
 	private int con[];
 
+	/**
+	 * Wide connections. Each point is held in 32 bits with starting point on
+	 * left. Used instead of {@link #con} once a point does not fit in 16
+	 * bits.
+	 */
+	private long wideCon[];
+
+	/**
+	 * Are the connections held in {@link #wideCon}?
+	 */
+	private boolean wide;
+
 	/**
 	 * Number of connections.
 	 */
@@ -49,11 +78,111 @@ public class ObjModel3D {
 	 */
 	private int maxcon;
 
+	/**
+	 * Faces. The points of face f are faceIndex[faceStart[f]] up to, but
+	 * excluding, faceIndex[faceStart[f + 1]].
+	 */
+	private int faceStart[], faceIndex[];
+
+	/**
+	 * Number of faces.
+	 */
+	private int nface;
+
+	/**
+	 * Are connections behind the model hidden?
+	 */
+	private boolean hiddenLineRemoval;
+
+	/**
+	 * The two faces on the sides of each connection: -1 for no face, and
+	 * -2 in the first slot for more than two faces. Built when hidden lines
+	 * are first removed.
+	 */
+	private int conFaces[];
+
+	/**
+	 * Is each face turned to the viewer, for the last transformation?
+	 */
+	private boolean frontFace[];
+
+	/**
+	 * Visible connections for the last transformation, one bit each. Null if
+	 * all connections are visible.
+	 */
+	private long visibleCon[];
+
+	/**
+	 * Indices for picking connections and vertices, built on the first pick
+	 * under the lock of the holder. The holder is shared with the models
+	 * returned by {@link #share()}, and replaced, never cleared, when the
+	 * model changes.
+	 */
+	private static final class PickIndices {
+		PickIndex con, vert;
+	}
+
+	private PickIndices pickIndices = new PickIndices();
+
+	/**
+	 * Matrix of the last pick.
+	 */
+	private final double pickMatrix[] = new double[16];
+
+	/**
+	 * The transformation including the dequantization, for the last pick
+	 * of a quantized model.
+	 */
+	private Transformer3D pickTransformer;
+
+	/**
+	 * Simplified versions of the model, finest first, and the number of grid
+	 * cells along the longest side each one was clustered on.
+	 */
+	private ObjModel3D detailLevels[];
+	private int detailCells[];
+
 	/**
 	 * Is the model transformed?.
 	 */
 	private boolean transformed;
 
+	/**
+	 * Are the connections free of duplicates?
+	 */
+	private boolean compressed;
+
+	/**
+	 * Are duplicate connections dropped while loading?
+	 */
+	private boolean dedupOnLoad;
+
+	/**
+	 * Connections added so far, while loading with {@link #dedupOnLoad}.
+	 */
+	private EdgeTable edgeTable;
+
+	/**
+	 * File size from which files are loaded on several cores.
+	 */
+	private long parallelLoadThreshold = 32L << 20;
+
+	/**
+	 * Pool loading large files, null for the common pool.
+	 */
+	private ForkJoinPool loadPool;
+
+	/**
+	 * Number of vertices from which the model is transformed on several
+	 * threads.
+	 */
+	private int parallelTransformThreshold = 100000;
+
+	/**
+	 * Executor of parallel transformations, null for the common pool.
+	 */
+	private Executor transformExecutor;
+
 	/**
 	 * Boundaries.
 	 */
@@ -85,21 +214,237 @@ public class ObjModel3D {
 	}
 
 	/**
-	 * Returns connections.
+	 * Returns connections. Each point is held in 16 bits with starting point
+	 * on left.
 	 *
-	 * @return connections
+	 * @return connections, or null if the model has wide connections
+	 * @see #hasWideConnections()
 	 */
 	public int[] getConnections() {
-		return con;
+		return wide ? null : con;
+	}
+
+	/**
+	 * Returns wide connections. Each point is held in 32 bits with starting
+	 * point on left.
+	 *
+	 * @return connections, or null if the model has 16 bit connections
+	 * @see #hasWideConnections()
+	 */
+	public long[] getWideConnections() {
+		return wide ? wideCon : null;
+	}
+
+	/**
+	 * Checks whether the connections are held in 64 bits, which is the case
+	 * when a connected point has an index above 65535.
+	 *
+	 * @return true if the connections are wide, false otherwise.
+	 */
+	public boolean hasWideConnections() {
+		return wide;
+	}
+
+	/**
+	 * Returns the starting point of a connection.
+	 *
+	 * @param i
+	 *            index of the connection
+	 * @return index of the starting point
+	 */
+	public int getConnectionStart(int i) {
+		return wide ? (int) (wideCon[i] >>> 32) : con[i] >>> 16;
+	}
+
+	/**
+	 * Returns the end point of a connection.
+	 *
+	 * @param i
+	 *            index of the connection
+	 * @return index of the end point
+	 */
+	public int getConnectionEnd(int i) {
+		return wide ? (int) wideCon[i] : con[i] & 0xFFFF;
+	}
+
+	/**
+	 * Returns number of faces.
+	 *
+	 * @return number of faces
+	 */
+	public int getNumberOfFaces() {
+		return nface;
+	}
+
+	/**
+	 * Returns where the points of each face start in
+	 * {@link #getFaceIndices()}. The array holds
+	 * {@link #getNumberOfFaces()} + 1 elements, the last one being the end of
+	 * the last face.
+	 *
+	 * @return start of each face
+	 */
+	public int[] getFaceStarts() {
+		return faceStart;
+	}
+
+	/**
+	 * Returns the points of all faces, one face after the other.
+	 *
+	 * @return indices of the points of the faces
+	 */
+	public int[] getFaceIndices() {
+		return faceIndex;
+	}
+
+	/**
+	 * Checks whether a connection is drawn. All connections are drawn unless
+	 * hidden lines are removed.
+	 *
+	 * @param i
+	 *            index of the connection
+	 * @return true if the connection is visible
+	 * @see #setHiddenLineRemoval(boolean)
+	 */
+	public boolean isConnectionVisible(int i) {
+		long v[] = visibleCon;
+		return v == null || (v[i >>> 6] & (1L << i)) != 0;
 	}
 
 	/**
-	 * Returns transformed vertices.
+	 * Sets whether connections behind the model are hidden. A face is culled
+	 * when it is turned away from the viewer, that is when its points appear
+	 * clockwise on screen; a connection is hidden when all faces on its sides
+	 * are culled. Connections without faces, and connections shared by more
+	 * than two faces, are always drawn. Takes effect at the next
+	 * transformation.
+	 *
+	 * @param hiddenLineRemoval
+	 *            true to hide connections behind the model
+	 */
+	public void setHiddenLineRemoval(boolean hiddenLineRemoval) {
+		this.hiddenLineRemoval = hiddenLineRemoval;
+		if (!hiddenLineRemoval)
+			visibleCon = null;
+		if (detailLevels != null)
+			for (ObjModel3D m : detailLevels)
+				m.setHiddenLineRemoval(hiddenLineRemoval);
+	}
+
+	/**
+	 * Checks whether connections behind the model are hidden.
+	 *
+	 * @return true if connections behind the model are hidden
+	 */
+	public boolean isHiddenLineRemoval() {
+		return hiddenLineRemoval;
+	}
+
+	/**
+	 * Returns x coordinates of the transformed vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid.
+	 *
+	 * @return x coordinates of transformed vertices
+	 */
+	public float[] getX() {
+		return transX;
+	}
+
+	/**
+	 * Returns y coordinates of the transformed vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid.
+	 *
+	 * @return y coordinates of transformed vertices
+	 */
+	public float[] getY() {
+		return transY;
+	}
+
+	/**
+	 * Returns z coordinates of the transformed vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid.
+	 *
+	 * @return z coordinates of transformed vertices
+	 */
+	public float[] getZ() {
+		return transZ;
+	}
+
+	/**
+	 * Returns x coordinates of the original vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid. The coordinates of
+	 * a quantized model are restored into a new array on each call.
+	 *
+	 * @return x coordinates of original vertices
+	 * @see #quantize()
+	 */
+	public float[] getOriginalX() {
+		return quantized != null ? quantized.getX() : orgX;
+	}
+
+	/**
+	 * Returns y coordinates of the original vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid. The coordinates of
+	 * a quantized model are restored into a new array on each call.
+	 *
+	 * @return y coordinates of original vertices
+	 * @see #quantize()
+	 */
+	public float[] getOriginalY() {
+		return quantized != null ? quantized.getY() : orgY;
+	}
+
+	/**
+	 * Returns z coordinates of the original vertices. Only the first
+	 * {@link #getNumberOfVertices()} elements are valid. The coordinates of
+	 * a quantized model are restored into a new array on each call.
+	 *
+	 * @return z coordinates of original vertices
+	 * @see #quantize()
+	 */
+	public float[] getOriginalZ() {
+		return quantized != null ? quantized.getZ() : orgZ;
+	}
+
+	/**
+	 * Returns one original vertex as a point.
+	 *
+	 * @param i
+	 *            index of the vertex
+	 * @return the original vertex
+	 */
+	public Point3D getOriginalVertex(int i) {
+		if (quantized != null)
+			return new Point3D(quantized.getX(i), quantized.getY(i),
+					quantized.getZ(i));
+		return new Point3D(orgX[i], orgY[i], orgZ[i]);
+	}
+
+	/**
+	 * Returns one transformed vertex as a point.
+	 *
+	 * @param i
+	 *            index of the vertex
+	 * @return the transformed vertex
+	 */
+	public Point3D getVertex(int i) {
+		return new Point3D(transX[i], transY[i], transZ[i]);
+	}
+
+	/**
+	 * Returns transformed vertices as points. The points are a copy of the
+	 * packed coordinates, use {@link #getX()}, {@link #getY()} and
+	 * {@link #getZ()} in drawing loops.
 	 *
 	 * @return transformed vertices
 	 */
 	public Point3D[] getVertices() {
-		return transformedVert;
+		if (transX == null)
+			return null;
+		Point3D v[] = new Point3D[nvert];
+		for (int i = 0; i < nvert; i++)
+			v[i] = getVertex(i);
+		return v;
 	}
 
 	/**
@@ -113,94 +458,275 @@ public class ObjModel3D {
 	 *             thrown when the OBJ file format is incorrect.
 	 */
 	public void load(InputStream is) throws IOException, ObjFileFormatException {
+		ModelLoadEvent event = new ModelLoadEvent();
+		event.begin();
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		dequantize();
+		try {
+			new ObjParser(new Builder()).parse(is);
+			loaded(event, "stream", false, start, alloc);
+		} finally {
+			edgeTable = null;
+			detailLevels = null;
+			pickIndices = new PickIndices();
+		}
+	}
 
-		Reader r = new BufferedReader(new InputStreamReader(is));
-		StreamTokenizer st = new StreamTokenizer(r);
-		st.eolIsSignificant(true);
-		st.commentChar('#');
-		scan: while (true) {
-			switch (st.nextToken()) {
-			default:
-				break scan;
-			case StreamTokenizer.TT_EOL:
-				break;
-			case StreamTokenizer.TT_WORD:
-				if ("v".equals(st.sval)) {
-					double x = 0, y = 0, z = 0;
-					if (st.nextToken() == StreamTokenizer.TT_NUMBER) {
-						x = st.nval;
-						if (st.nextToken() == StreamTokenizer.TT_NUMBER) {
-							y = st.nval;
-							if (st.nextToken() == StreamTokenizer.TT_NUMBER) {
-								z = st.nval;
-							}
-						}
-					}
-					addVert(new Point3D((float) x, (float) y, (float) z));
-					while (st.ttype != StreamTokenizer.TT_EOL
-							&& st.ttype != StreamTokenizer.TT_EOF) {
-						st.nextToken();
-					}
-				} else if ("f".equals(st.sval) || "fo".equals(st.sval)
-						|| "l".equals(st.sval)) {
-					int start = -1;
-					int prev = -1;
-					int n = -1;
-					while (true) {
-						if (st.nextToken() == StreamTokenizer.TT_NUMBER) {
-							n = (int) st.nval;
-							if (prev >= 0)
-								add(prev - 1, n - 1);
-							if (start < 0)
-								start = n;
-							prev = n;
-						} else if (st.ttype == '/') {
-							st.nextToken();
-						} else {
-							break;
-						}
-					}
-					if (start >= 0) {
-						add(start - 1, prev - 1);
-					}
-					if (st.ttype != StreamTokenizer.TT_EOL) {
-						break scan;
-					}
-				} else {
-					while (st.nextToken() != StreamTokenizer.TT_EOL
-							&& st.ttype != StreamTokenizer.TT_EOF)
-						;
-				}
-			}
+	/**
+	 * Loads an OBJ model from a file, reading it through a memory-mapped
+	 * channel.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	public void load(Path path) throws IOException, ObjFileFormatException {
+		ModelLoadEvent event = new ModelLoadEvent();
+		event.begin();
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		dequantize();
+		try {
+			boolean parallel = Files.size(path) >= parallelLoadThreshold;
+			if (parallel)
+				new ParallelObjLoader(loadPool != null ? loadPool
+						: ForkJoinPool.commonPool()).load(path, this);
+			else
+				new ObjParser(new Builder()).parse(path);
+			loaded(event, path.toString(), parallel, start, alloc);
+		} finally {
+			edgeTable = null;
+			detailLevels = null;
+			pickIndices = new PickIndices();
+		}
+	}
+
+	/**
+	 * Records a finished load.
+	 */
+	private void loaded(ModelLoadEvent event, String source,
+			boolean parallel, long start, long alloc) {
+		PipelineMetrics.record(Stage.LOAD, start, alloc);
+		event.end();
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.parallel = parallel;
+			event.vertices = nvert;
+			event.connections = ncon;
+			event.faces = nface;
+			long a = PipelineMetrics.allocated();
+			event.allocated = alloc >= 0 && a >= alloc ? a - alloc : 0;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Sets whether duplicate connections are dropped while loading, through
+	 * a hash table of the connections added so far. The connections then
+	 * keep the order of the file and {@link #compress()} has nothing left to
+	 * do.
+	 *
+	 * @param dedup
+	 *            true to drop duplicates while loading
+	 */
+	public void setDeduplicateOnLoad(boolean dedup) {
+		if (dedup && !dedupOnLoad)
+			compress();
+		this.dedupOnLoad = dedup;
+	}
+
+	/**
+	 * Checks whether duplicate connections are dropped while loading.
+	 *
+	 * @return true if duplicates are dropped while loading
+	 */
+	public boolean isDeduplicateOnLoad() {
+		return dedupOnLoad;
+	}
+
+	/**
+	 * Sets the file size from which {@link #load(Path)} parses the file on
+	 * several cores.
+	 *
+	 * @param bytes
+	 *            the file size in bytes
+	 */
+	public void setParallelLoadThreshold(long bytes) {
+		this.parallelLoadThreshold = bytes;
+	}
+
+	/**
+	 * Returns the file size from which {@link #load(Path)} parses the file
+	 * on several cores.
+	 *
+	 * @return the file size in bytes
+	 */
+	public long getParallelLoadThreshold() {
+		return parallelLoadThreshold;
+	}
+
+	/**
+	 * Sets the pool used to load large files.
+	 *
+	 * @param pool
+	 *            the pool, or null for the common pool
+	 */
+	public void setLoadPool(ForkJoinPool pool) {
+		this.loadPool = pool;
+	}
+
+	/**
+	 * Adds the records of the parser to this model.
+	 */
+	private class Builder implements ObjParser.Handler {
+
+		@Override
+		public void vertex(float x, float y, float z) {
+			addVert(x, y, z);
 		}
 
-		if (st.ttype != StreamTokenizer.TT_EOF) {
-			throw new ObjFileFormatException(st.toString());
+		@Override
+		public void face(int indices[], int n) {
+			addFace(indices, 0, n);
+			addPolygon(indices, n);
 		}
+
+		@Override
+		public void line(int indices[], int n) {
+			addPolygon(indices, n);
+		}
+	}
+
+	/**
+	 * Adds the connections of a closed polygon.
+	 *
+	 * @param indices
+	 *            zero based vertex indices
+	 * @param n
+	 *            number of vertices
+	 */
+	private void addPolygon(int indices[], int n) {
+		addPolygon(indices, 0, n);
+	}
+
+	/**
+	 * Adds the connections of a closed polygon.
+	 *
+	 * @param indices
+	 *            zero based vertex indices
+	 * @param off
+	 *            offset of the first index
+	 * @param n
+	 *            number of vertices
+	 */
+	void addPolygon(int indices[], int off, int n) {
+		if (n <= 0)
+			return;
+		for (int i = off + 1; i < off + n; i++)
+			add(indices[i - 1], indices[i]);
+		add(indices[off], indices[off + n - 1]);
+	}
+
+	/**
+	 * Adds a face. Faces with less than three points or with unknown points
+	 * are ignored.
+	 *
+	 * @param indices
+	 *            zero based vertex indices
+	 * @param off
+	 *            offset of the first index
+	 * @param n
+	 *            number of vertices
+	 */
+	void addFace(int indices[], int off, int n) {
+		if (n < 3)
+			return;
+		for (int i = off; i < off + n; i++)
+			if (indices[i] >= nvert)
+				return;// illegal index
+		if (faceStart == null) {
+			faceStart = new int[101];
+			faceIndex = new int[300];
+		}
+		if (nface + 1 >= faceStart.length)
+			faceStart = Arrays.copyOf(faceStart, faceStart.length * 2);
+		int start = faceStart[nface];
+		if (start + n > faceIndex.length)
+			faceIndex = Arrays.copyOf(faceIndex,
+					Math.max(faceIndex.length * 2, start + n));
+		System.arraycopy(indices, off, faceIndex, start, n);
+		faceStart[++nface] = start + n;
+		conFaces = null;
+	}
+
+	/**
+	 * Grows the model to hold the given number of vertices. The new vertices
+	 * are set with {@link #setVertex(int, float, float, float)}.
+	 *
+	 * @param n
+	 *            number of vertices
+	 */
+	void ensureVertices(int n) {
+		if (n > maxvert) {
+			maxvert = n;
+			orgX = orgX == null ? new float[n] : Arrays.copyOf(orgX, n);
+			orgY = orgY == null ? new float[n] : Arrays.copyOf(orgY, n);
+			orgZ = orgZ == null ? new float[n] : Arrays.copyOf(orgZ, n);
+		}
+		if (n > nvert)
+			nvert = n;
+	}
+
+	/**
+	 * Sets one vertex of the original model.
+	 *
+	 * @param i
+	 *            index of the vertex
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @param z
+	 *            z coordinate
+	 */
+	void setVertex(int i, float x, float y, float z) {
+		orgX[i] = x;
+		orgY[i] = y;
+		orgZ[i] = z;
 	}
 
 	/**
 	 * Adds one vertex to the original model.
 	 *
-	 * @param p
-	 *            the vertex
+	 * @param x
+	 *            x coordinate
+	 * @param y
+	 *            y coordinate
+	 * @param z
+	 *            z coordinate
 	 * @return number of vertices
 	 */
-	private int addVert(Point3D p) {
+	private int addVert(float x, float y, float z) {
 		int i = nvert;
 		if (i >= maxvert) {
-			if (orgVert == null) {
+			if (orgX == null) {
 				maxvert = 100;
-				orgVert = new Point3D[maxvert];
+				orgX = new float[maxvert];
+				orgY = new float[maxvert];
+				orgZ = new float[maxvert];
 			} else {
 				maxvert *= 2;
-				Point3D nv[] = new Point3D[maxvert];
-				System.arraycopy(orgVert, 0, nv, 0, orgVert.length);
-				orgVert = nv;
+				orgX = Arrays.copyOf(orgX, maxvert);
+				orgY = Arrays.copyOf(orgY, maxvert);
+				orgZ = Arrays.copyOf(orgZ, maxvert);
 			}
 		}
 
-		orgVert[i] = p;
+		orgX[i] = x;
+		orgY[i] = y;
+		orgZ[i] = z;
 
 		return nvert++;
 	}
@@ -218,25 +744,61 @@ public class ObjModel3D {
 		if (p1 >= nvert || p2 >= nvert) {
 			return;// illegal index
 		}
+		if (p1 > p2) {
+			int t = p1;
+			p1 = p2;
+			p2 = t;
+		}
+		if (dedupOnLoad) {
+			if (edgeTable == null) {
+				edgeTable = new EdgeTable(Math.max(ncon, nvert * 3), nvert);
+				for (int j = 0; j < ncon; j++)
+					edgeTable.putIfAbsent(EdgeTable.key(getConnectionStart(j),
+							getConnectionEnd(j)), j);
+			}
+			if (edgeTable.putIfAbsent(EdgeTable.key(p1, p2), i) >= 0)
+				return;// already present
+		}
+		if (!wide && p2 > 0xFFFF)
+			widen();
 		if (i >= maxcon) {
-			if (con == null) {
+			if (maxcon == 0) {
 				maxcon = 100;
-				con = new int[maxcon];
 			} else {
 				maxcon *= 2;
-				int nv[] = new int[maxcon];
-				System.arraycopy(con, 0, nv, 0, con.length);
-				con = nv;
 			}
+			if (wide)
+				wideCon = wideCon == null ? new long[maxcon] : Arrays.copyOf(
+						wideCon, maxcon);
+			else
+				con = con == null ? new int[maxcon] : Arrays.copyOf(con,
+						maxcon);
 		}
-		if (p1 > p2) {
-			int t = p1;
-			p1 = p2;
-			p2 = t;
-		}
-		con[i] = (p1 << 16) | p2;// 16 bits for one point index, smaller one on
-									// left
+		if (wide)
+			wideCon[i] = ((long) p1 << 32) | p2;// 32 bits for one point index
+		else
+			con[i] = (p1 << 16) | p2;// 16 bits for one point index, smaller
+										// one on left
 		ncon = i + 1;
+		compressed = dedupOnLoad;
+		conFaces = null;
+		if (pickIndices.con != null)
+			pickIndices = new PickIndices();
+	}
+
+	/**
+	 * Moves the connections from 16 bit to 32 bit points.
+	 */
+	private void widen() {
+		long w[] = new long[Math.max(maxcon, 100)];
+		for (int i = 0; i < ncon; i++) {
+			int c = con[i];
+			w[i] = ((long) (c >>> 16) << 32) | (c & 0xFFFF);
+		}
+		maxcon = w.length;
+		wideCon = w;
+		con = null;
+		wide = true;
 	}
 
 	/**
@@ -248,10 +810,146 @@ public class ObjModel3D {
 	public void transform(Transformer3D transformer) {
 		if (transformed || nvert <= 0)
 			return;
-		if (transformedVert == null || transformedVert.length < nvert)
-			transformedVert = new Point3D[nvert];
-		transformer.transform(orgVert, transformedVert, nvert);
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		if (transX == null || transX.length < nvert) {
+			transX = new float[nvert];
+			transY = new float[nvert];
+			transZ = new float[nvert];
+		}
+		QuantizedVertices q = quantized;
+		if (q != null) {
+			if (quantMatrix == null)
+				quantMatrix = new Transformer3D();
+			q.getMatrix(quantMatrix, transformer);
+			if (nvert >= parallelTransformThreshold)
+				ParallelTransform.transform(transformExecutor != null
+						? transformExecutor : ForkJoinPool.commonPool(),
+						quantMatrix, q.x, q.y, q.z, transX, transY, transZ,
+						nvert);
+			else
+				quantMatrix.transform(q.x, q.y, q.z, transX, transY, transZ,
+						0, nvert);
+		} else if (nvert >= parallelTransformThreshold)
+			ParallelTransform.transform(transformExecutor != null
+					? transformExecutor : ForkJoinPool.commonPool(),
+					transformer, orgX, orgY, orgZ, transX, transY, transZ,
+					nvert);
+		else
+			transformer.transform(orgX, orgY, orgZ, transX, transY, transZ,
+					nvert);
+		if (hiddenLineRemoval)
+			cull();
 		transformed = true;
+		PipelineMetrics.record(Stage.TRANSFORM, start, alloc);
+	}
+
+	/**
+	 * Finds the connections visible after the transformation.
+	 */
+	private void cull() {
+		if (nface == 0 || ncon == 0) {
+			visibleCon = null;
+			return;
+		}
+		if (conFaces == null)
+			conFaces = connectionFaces();
+		if (frontFace == null || frontFace.length < nface)
+			frontFace = new boolean[nface];
+		float x[] = transX, y[] = transY;
+		int fs[] = faceStart, fi[] = faceIndex;
+		for (int f = 0; f < nface; f++) {
+			int s = fs[f], e = fs[f + 1];
+			int prev = fi[e - 1];
+			double area = 0;
+			for (int k = s; k < e; k++) {
+				int cur = fi[k];
+				area += (double) x[prev] * y[cur] - (double) x[cur] * y[prev];
+				prev = cur;
+			}
+			// y points down on screen, so counter-clockwise faces are negative
+			frontFace[f] = area < 0;
+		}
+		int words = (ncon + 63) >>> 6;
+		long v[] = visibleCon;
+		if (v == null || v.length < words)
+			v = new long[words];
+		else
+			Arrays.fill(v, 0, words, 0);
+		int cf[] = conFaces;
+		for (int i = 0; i < ncon; i++) {
+			int a = cf[2 * i], b = cf[2 * i + 1];
+			if (a < 0 || frontFace[a] || (b >= 0 && frontFace[b]))
+				v[i >>> 6] |= 1L << i;
+		}
+		visibleCon = v;
+	}
+
+	/**
+	 * Finds the faces on the sides of each connection.
+	 *
+	 * @return two faces per connection, see {@link #conFaces}
+	 */
+	private int[] connectionFaces() {
+		EdgeTable table = new EdgeTable(ncon, nvert);
+		for (int i = 0; i < ncon; i++)
+			table.putIfAbsent(
+					EdgeTable.key(getConnectionStart(i), getConnectionEnd(i)),
+					i);
+		int cf[] = new int[2 * ncon];
+		Arrays.fill(cf, -1);
+		for (int f = 0; f < nface; f++) {
+			int s = faceStart[f], e = faceStart[f + 1];
+			int prev = faceIndex[e - 1];
+			for (int k = s; k < e; k++) {
+				int cur = faceIndex[k];
+				int i = table.get(EdgeTable.key(Math.min(prev, cur),
+						Math.max(prev, cur)));
+				prev = cur;
+				if (i < 0)
+					continue;
+				int a = cf[2 * i];
+				if (a == -1) {
+					cf[2 * i] = f;
+				} else if (a >= 0 && a != f) {
+					if (cf[2 * i + 1] == -1)
+						cf[2 * i + 1] = f;
+					else if (cf[2 * i + 1] != f)
+						cf[2 * i] = -2;
+				}
+			}
+		}
+		return cf;
+	}
+
+	/**
+	 * Sets the number of vertices from which {@link #transform(Transformer3D)}
+	 * runs on several threads. The result is the same as with one thread.
+	 *
+	 * @param vertices
+	 *            number of vertices
+	 */
+	public void setParallelTransformThreshold(int vertices) {
+		this.parallelTransformThreshold = vertices;
+	}
+
+	/**
+	 * Returns the number of vertices from which
+	 * {@link #transform(Transformer3D)} runs on several threads.
+	 *
+	 * @return number of vertices
+	 */
+	public int getParallelTransformThreshold() {
+		return parallelTransformThreshold;
+	}
+
+	/**
+	 * Sets the executor of parallel transformations.
+	 *
+	 * @param executor
+	 *            the executor, or null for the common ForkJoin pool
+	 */
+	public void setTransformExecutor(Executor executor) {
+		this.transformExecutor = executor;
 	}
 
 	/**
@@ -274,84 +972,201 @@ public class ObjModel3D {
 	}
 
 	/**
-	 * Sorts the connections.
-	 *
-	 * @param lo0
-	 *            lo
-	 * @param hi0
-	 *            hi
+	 * Eliminates duplicates connections.
 	 */
-	private void sort(int lo0, int hi0) {
-		int a[] = con;
-		int lo = lo0;
-		int hi = hi0;
-		if (lo >= hi)
+	public void compress() {
+		if (compressed)
 			return;
-		int mid = a[(lo + hi) / 2];
-		while (lo < hi) {
-			while (lo < hi && a[lo] < mid) {
-				lo++;
-			}
-			while (lo < hi && a[hi] >= mid) {
-				hi--;
+		int limit = ncon;
+		int d = 0;
+		if (limit == 0) {
+			compressed = true;
+			return;
+		}
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		if (wide) {
+			long c[] = wideCon;
+			Arrays.sort(c, 0, limit);
+			for (int i = 0; i < limit; i++) {
+				long p1 = c[i];
+				if (d == 0 || c[d - 1] != p1) {
+					c[d] = p1;
+					d++;
+				}
 			}
-			if (lo < hi) {
-				int T = a[lo];
-				a[lo] = a[hi];
-				a[hi] = T;
+		} else {
+			int c[] = con;
+			Arrays.sort(c, 0, limit);
+			for (int i = 0; i < limit; i++) {
+				int p1 = c[i];
+				if (d == 0 || c[d - 1] != p1) {
+					c[d] = p1;
+					d++;
+				}
 			}
 		}
-		if (hi < lo) {
-			int T = hi;
-			hi = lo;
-			lo = T;
-		}
-		sort(lo0, lo);
-		sort(lo == lo0 ? lo + 1 : lo, hi0);
+		ncon = d;
+		compressed = true;
+		conFaces = null;
+		pickIndices = new PickIndices();
+		PipelineMetrics.record(Stage.DEDUP, start, alloc);
 	}
 
 	/**
-	 * Eliminates duplicates connections.
+	 * Replaces the content of the model with data that has already been
+	 * compressed and measured.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices, or null if the vertices are
+	 *            set quantized afterwards
+	 * @param y
+	 *            y coordinates of the vertices
+	 * @param z
+	 *            z coordinates of the vertices
+	 * @param nvert
+	 *            number of vertices
+	 * @param con
+	 *            16 bit connections without duplicates, or null
+	 * @param wideCon
+	 *            wide connections without duplicates, or null
+	 * @param ncon
+	 *            number of connections
+	 * @param faceStart
+	 *            start of each face, or null if there are no faces
+	 * @param faceIndex
+	 *            points of the faces, or null if there are no faces
+	 * @param nface
+	 *            number of faces
 	 */
-	public void compress() {
-		int limit = ncon;
-		int c[] = con;
-		sort(0, ncon - 1);
-		int d = 0;
-		int pp1 = -1;
-		for (int i = 0; i < limit; i++) {
-			int p1 = c[i];
-			if (pp1 != p1) {
-				c[d] = p1;
-				d++;
-			}
-			pp1 = p1;
+	void set(float x[], float y[], float z[], int nvert, int con[],
+			long wideCon[], int ncon, int faceStart[], int faceIndex[],
+			int nface) {
+		this.orgX = x;
+		this.orgY = y;
+		this.orgZ = z;
+		this.nvert = nvert;
+		this.maxvert = x != null ? x.length : nvert;
+		this.quantized = null;
+		this.wide = wideCon != null;
+		this.con = con;
+		this.wideCon = wideCon;
+		this.ncon = ncon;
+		this.maxcon = wide ? wideCon.length : con.length;
+		this.faceStart = faceStart;
+		this.faceIndex = faceIndex;
+		this.nface = nface;
+		this.conFaces = null;
+		this.visibleCon = null;
+		this.detailLevels = null;
+		this.pickIndices = new PickIndices();
+		this.compressed = true;
+		this.transformed = false;
+	}
+
+	/**
+	 * Returns a model of the vertices, connections and faces added so far,
+	 * sharing their arrays with this model. While this model is loading,
+	 * records are only appended, and arrays are replaced rather than
+	 * changed when they grow, so the preview stays valid and can be drawn on
+	 * another thread as long as it was handed over safely. It must not be
+	 * changed except by transforming it.
+	 *
+	 * @return the preview, without boundaries
+	 */
+	ObjModel3D preview() {
+		ObjModel3D m = new ObjModel3D();
+		if (nvert > 0)
+			m.set(orgX, orgY, orgZ, nvert, wide ? null : con != null ? con
+					: new int[0], wide ? wideCon : null, ncon, faceStart,
+					faceIndex, nface);
+		m.quantized = quantized;
+		m.hiddenLineRemoval = hiddenLineRemoval;
+		return m;
+	}
+
+	/**
+	 * Returns a model sharing the vertices, connections, faces, detail levels
+	 * and pick indices of this one, with its own transformation, so that
+	 * several views can draw one loaded model. An index built by the first
+	 * pick of any of them serves all. Neither model may be changed afterwards,
+	 * except by transforming it or setting its hidden line removal.
+	 *
+	 * @return the shared model, with the boundaries of this one
+	 */
+	ObjModel3D share() {
+		ObjModel3D m = preview();
+		m.compressed = compressed;
+		m.xmin = xmin;
+		m.xmax = xmax;
+		m.ymin = ymin;
+		m.ymax = ymax;
+		m.zmin = zmin;
+		m.zmax = zmax;
+		m.pickIndices = pickIndices;
+		if (detailLevels != null) {
+			m.detailLevels = new ObjModel3D[detailLevels.length];
+			for (int i = 0; i < detailLevels.length; i++)
+				m.detailLevels[i] = detailLevels[i].share();
+			m.detailCells = detailCells;
 		}
-		ncon = d;
+		return m;
+	}
+
+	/**
+	 * Returns an estimate of the memory held by the arrays of the model,
+	 * including its detail levels and indices built for drawing.
+	 *
+	 * @return size in bytes
+	 */
+	public long getMemoryUsage() {
+		long b = 0;
+		if (orgX != null)
+			b += 12L * orgX.length;
+		if (quantized != null)
+			b += quantized.getMemoryUsage();
+		if (transX != null)
+			b += 12L * transX.length;
+		if (con != null)
+			b += 4L * con.length;
+		if (wideCon != null)
+			b += 8L * wideCon.length;
+		if (faceStart != null)
+			b += 4L * (faceStart.length + faceIndex.length);
+		if (conFaces != null)
+			b += 4L * conFaces.length;
+		if (frontFace != null)
+			b += frontFace.length;
+		if (visibleCon != null)
+			b += 8L * visibleCon.length;
+		if (detailLevels != null)
+			for (ObjModel3D m : detailLevels)
+				b += m.getMemoryUsage();
+		return b;
 	}
 
 	/**
 	 * Finds boundaries.
 	 */
 	public void findBoundary() {
-		if (nvert <= 0)
-			return;
-		Point3D v[] = orgVert;
-		float xmin = (float) v[0].x, xmax = xmin;
-		float ymin = (float) v[0].y, ymax = ymin;
-		float zmin = (float) v[0].z, zmax = zmin;
+		if (nvert <= 0 || quantized != null)
+			return;// the boundaries of a quantized model are kept
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		float vx[] = orgX, vy[] = orgY, vz[] = orgZ;
+		float xmin = vx[0], xmax = xmin;
+		float ymin = vy[0], ymax = ymin;
+		float zmin = vz[0], zmax = zmin;
 		for (int i = nvert; (i--) > 0;) {
-			float x = (float) v[i].x;
+			float x = vx[i];
 			if (x < xmin)
 				xmin = x;
 			if (x > xmax)
 				xmax = x;
-			float y = (float) v[i].y;
+			float y = vy[i];
 			if (y < ymin)
 				ymin = y;
 			if (y > ymax)
 				ymax = y;
-			float z = (float) v[i].z;
+			float z = vz[i];
 			if (z < zmin)
 				zmin = z;
 			if (z > zmax)
@@ -363,5 +1178,433 @@ public class ObjModel3D {
 		this.ymin = ymin;
 		this.zmax = zmax;
 		this.zmin = zmin;
+		PipelineMetrics.record(Stage.BOUNDS, start, alloc);
+	}
+
+	/**
+	 * Builds simplified versions of the model by vertex clustering: the
+	 * boundary box is cut into a grid of cubic cells, all vertices of a cell
+	 * are merged into their average, and connections and faces collapsing to
+	 * a point are dropped. The first level has 256 cells along the longest
+	 * side of the model, and every next one half as many; levels stop when
+	 * they no longer remove a fifth of the vertices. The boundaries must be
+	 * found first, and the levels must be built again after the model
+	 * changes.
+	 *
+	 * @param levels
+	 *            largest number of levels
+	 */
+	public void buildDetailLevels(int levels) {
+		float size = Math.max(xmax - xmin, Math.max(ymax - ymin, zmax - zmin));
+		ObjModel3D built[] = new ObjModel3D[Math.max(levels, 0)];
+		int cells[] = new int[built.length];
+		int n = 0;
+		int prev = nvert;
+		int cluster[] = new int[nvert];
+		for (int c = 256; n < built.length && c >= 2 && size > 0; c >>= 1) {
+			ObjModel3D m = simplify(c, size, cluster);
+			if (m.nvert > prev * 0.8)
+				continue;// too close to the previous level
+			built[n] = m;
+			cells[n++] = c;
+			prev = m.nvert;
+		}
+		detailLevels = Arrays.copyOf(built, n);
+		detailCells = Arrays.copyOf(cells, n);
+		if (quantized != null)
+			for (ObjModel3D m : detailLevels)
+				m.quantize();
+	}
+
+	/**
+	 * Quantizes the vertices of the model and of its detail levels to 16
+	 * bits per coordinate over the boundary box, halving the memory they
+	 * take. The float coordinates are dropped, and the dequantization is
+	 * folded into the transformation matrix, so that transforming costs the
+	 * same. A coordinate moves by at most one 131070th of the side of the
+	 * box. The boundaries must be found first; the model is restored to
+	 * float coordinates when more is loaded into it.
+	 */
+	public void quantize() {
+		if (quantized == null && nvert > 0) {
+			quantized = new QuantizedVertices(orgX, orgY, orgZ, nvert, this);
+			orgX = orgY = orgZ = null;
+			maxvert = nvert;
+			pickIndices = new PickIndices();
+		}
+		if (detailLevels != null)
+			for (ObjModel3D m : detailLevels)
+				m.quantize();
+	}
+
+	/**
+	 * Checks whether the vertices are quantized to 16 bits per coordinate.
+	 *
+	 * @return true if the model is quantized
+	 * @see #quantize()
+	 */
+	public boolean isQuantized() {
+		return quantized != null;
+	}
+
+	/**
+	 * Renumbers the vertices along a Morton curve over the boundary box, so
+	 * that vertices close in space are close in memory, and sorts the
+	 * connections by their new starting point. Transforming, culling and
+	 * drawing then walk the vertex arrays mostly forward instead of in the
+	 * order the file was written, which saves cache misses on large models.
+	 * Faces and detail levels are renumbered too. The boundaries must be
+	 * found first.
+	 * <p>
+	 * The arrays are replaced rather than changed, so that models shared
+	 * with this one keep their numbering.
+	 */
+	public void optimizeLayout() {
+		compress();
+		if (detailLevels != null)
+			for (ObjModel3D m : detailLevels)
+				m.optimizeLayout();
+		if (nvert <= 1)
+			return;
+		int order[] = mortonOrder();
+		int index[] = new int[nvert];
+		for (int i = 0; i < nvert; i++)
+			index[order[i]] = i;
+
+		if (quantized != null) {
+			quantized = quantized.reorder(order);
+		} else {
+			float x[] = new float[nvert], y[] = new float[nvert];
+			float z[] = new float[nvert];
+			for (int i = 0; i < nvert; i++) {
+				int k = order[i];
+				x[i] = orgX[k];
+				y[i] = orgY[k];
+				z[i] = orgZ[k];
+			}
+			orgX = x;
+			orgY = y;
+			orgZ = z;
+			maxvert = nvert;
+		}
+
+		if (!wide && nvert > 0x10000)
+			for (int i = 0; i < ncon; i++)
+				if (index[con[i] >>> 16] > 0xFFFF
+						|| index[con[i] & 0xFFFF] > 0xFFFF) {
+					widen();// a point moved beyond 16 bits
+					break;
+				}
+		if (wide) {
+			long c[] = new long[Math.max(ncon, 1)];
+			for (int i = 0; i < ncon; i++) {
+				int p1 = index[(int) (wideCon[i] >>> 32)];
+				int p2 = index[(int) wideCon[i]];
+				c[i] = p1 < p2 ? ((long) p1 << 32) | p2 : ((long) p2 << 32)
+						| p1;
+			}
+			Arrays.sort(c, 0, ncon);
+			wideCon = c;
+			maxcon = c.length;
+		} else if (con != null) {
+			int c[] = new int[Math.max(ncon, 1)];
+			for (int i = 0; i < ncon; i++) {
+				int p1 = index[con[i] >>> 16];
+				int p2 = index[con[i] & 0xFFFF];
+				c[i] = p1 < p2 ? (p1 << 16) | p2 : (p2 << 16) | p1;
+			}
+			Arrays.sort(c, 0, ncon);
+			con = c;
+			maxcon = c.length;
+		}
+
+		if (nface > 0) {
+			int n = faceStart[nface];
+			int fi[] = new int[n];
+			for (int j = 0; j < n; j++)
+				fi[j] = index[faceIndex[j]];
+			faceStart = Arrays.copyOf(faceStart, nface + 1);
+			faceIndex = fi;
+		}
+
+		conFaces = null;
+		visibleCon = null;
+		pickIndices = new PickIndices();
+		edgeTable = null;
+		transformed = false;
+	}
+
+	/**
+	 * Returns the vertices sorted by their Morton code on a grid of 1024
+	 * cells along each side of the boundary box, vertices of one cell
+	 * keeping their order.
+	 *
+	 * @return the old index of each vertex in the new order
+	 */
+	private int[] mortonOrder() {
+		float vx[] = getOriginalX(), vy[] = getOriginalY();
+		float vz[] = getOriginalZ();
+		double sx = cellScale(xmin, xmax), sy = cellScale(ymin, ymax);
+		double sz = cellScale(zmin, zmax);
+		long keys[] = new long[nvert];
+		for (int i = 0; i < nvert; i++) {
+			long code = spread(cell(vx[i] - xmin, sx))
+					| spread(cell(vy[i] - ymin, sy)) << 1
+					| spread(cell(vz[i] - zmin, sz)) << 2;
+			keys[i] = code << 32 | i;
+		}
+		Arrays.sort(keys);
+		int order[] = new int[nvert];
+		for (int i = 0; i < nvert; i++)
+			order[i] = (int) keys[i];
+		return order;
+	}
+
+	private static double cellScale(float min, float max) {
+		return max > min ? 1023 / (double) (max - min) : 0;
+	}
+
+	private static int cell(float d, double scale) {
+		return Math.max(0, Math.min(1023, (int) (d * scale)));
+	}
+
+	/**
+	 * Spreads the 10 low bits of a value over every third bit.
+	 */
+	private static long spread(int v) {
+		long b = v & 0x3FF;
+		b = (b | b << 16) & 0x30000FFL;
+		b = (b | b << 8) & 0x300F00FL;
+		b = (b | b << 4) & 0x30C30C3L;
+		b = (b | b << 2) & 0x9249249L;
+		return b;
+	}
+
+	/**
+	 * Restores the float coordinates of a quantized model.
+	 */
+	private void dequantize() {
+		if (quantized == null)
+			return;
+		orgX = quantized.getX();
+		orgY = quantized.getY();
+		orgZ = quantized.getZ();
+		quantized = null;
+		pickIndices = new PickIndices();
+	}
+
+	/**
+	 * Returns the number of simplified versions of the model.
+	 *
+	 * @return number of levels, 0 if none were built
+	 * @see #buildDetailLevels(int)
+	 */
+	public int getNumberOfDetailLevels() {
+		return detailLevels == null ? 0 : detailLevels.length;
+	}
+
+	/**
+	 * Returns a simplified version of the model.
+	 *
+	 * @param level
+	 *            the level, 0 for the finest
+	 * @return the simplified model
+	 */
+	public ObjModel3D getDetailLevel(int level) {
+		return detailLevels[level];
+	}
+
+	/**
+	 * Selects the version of the model to draw. A simplified version is
+	 * chosen when its grid cells are no larger than a pixel on screen, or
+	 * no larger than four pixels while the user interacts with the model.
+	 *
+	 * @param projectedSize
+	 *            size of the longest side of the model on screen, in pixels
+	 * @param interacting
+	 *            true while the user moves the model
+	 * @return this model or one of its simplified versions
+	 */
+	public ObjModel3D selectDetailLevel(float projectedSize, boolean interacting) {
+		ObjModel3D m = this;
+		if (detailLevels == null)
+			return m;
+		float pixels = interacting ? 4 : 1;
+		for (int k = 0; k < detailLevels.length; k++) {
+			if (projectedSize > pixels * detailCells[k])
+				break;
+			m = detailLevels[k];
+		}
+		return m;
+	}
+
+	/**
+	 * Clusters the vertices on a grid.
+	 *
+	 * @param cells
+	 *            number of cells along the longest side
+	 * @param size
+	 *            length of the longest side
+	 * @param cluster
+	 *            work array, the new index of each vertex
+	 * @return the simplified model
+	 */
+	private ObjModel3D simplify(int cells, float size, int cluster[]) {
+		float vx[] = getOriginalX(), vy[] = getOriginalY();
+		float vz[] = getOriginalZ();
+		float inv = cells / size;
+		EdgeTable table = new EdgeTable(Math.min(nvert, cells * cells * 4),
+				cells * cells);
+		int count[] = new int[16];
+		double sum[] = new double[48];
+		int n = 0;
+		for (int i = 0; i < nvert; i++) {
+			int cx = Math.min(cells - 1, (int) ((vx[i] - xmin) * inv));
+			int cy = Math.min(cells - 1, (int) ((vy[i] - ymin) * inv));
+			int cz = Math.min(cells - 1, (int) ((vz[i] - zmin) * inv));
+			int c = table.putIfAbsent(EdgeTable.key(cx * cells + cy, cz), n);
+			if (c < 0) {
+				c = n++;
+				if (c >= count.length) {
+					count = Arrays.copyOf(count, count.length * 2);
+					sum = Arrays.copyOf(sum, sum.length * 2);
+				}
+			}
+			cluster[i] = c;
+			count[c]++;
+			sum[3 * c] += vx[i];
+			sum[3 * c + 1] += vy[i];
+			sum[3 * c + 2] += vz[i];
+		}
+
+		ObjModel3D m = new ObjModel3D();
+		m.ensureVertices(n);
+		for (int c = 0; c < n; c++)
+			m.setVertex(c, (float) (sum[3 * c] / count[c]),
+					(float) (sum[3 * c + 1] / count[c]),
+					(float) (sum[3 * c + 2] / count[c]));
+		m.dedupOnLoad = true;
+		// a mesh has about three connections per vertex; twice the room keeps
+		// the probes short even where clusters are dense
+		m.edgeTable = new EdgeTable(Math.min(ncon, 6 * n), n);
+		for (int i = 0; i < ncon; i++) {
+			int p1 = cluster[getConnectionStart(i)];
+			int p2 = cluster[getConnectionEnd(i)];
+			if (p1 != p2)
+				m.add(p1, p2);
+		}
+		m.edgeTable = null;
+		m.dedupOnLoad = false;
+		int face[] = new int[16];
+		for (int f = 0; f < nface; f++) {
+			int k = 0;
+			for (int j = faceStart[f]; j < faceStart[f + 1]; j++) {
+				int p = cluster[faceIndex[j]];
+				if (k > 0 && face[k - 1] == p)
+					continue;
+				if (k == face.length)
+					face = Arrays.copyOf(face, k * 2);
+				face[k++] = p;
+			}
+			if (k > 1 && face[k - 1] == face[0])
+				k--;
+			m.addFace(face, 0, k);
+		}
+		m.compressed = true;
+		m.xmin = xmin;
+		m.xmax = xmax;
+		m.ymin = ymin;
+		m.ymax = ymax;
+		m.zmin = zmin;
+		m.zmax = zmax;
+		m.hiddenLineRemoval = hiddenLineRemoval;
+		return m;
+	}
+
+	/**
+	 * Finds the connection under a point of the screen: the one nearest to
+	 * the viewer, that is with the greatest z, among the connections passing
+	 * within a tolerance of the point. An index of the connections is built
+	 * on the first pick; the model does not need to be transformed.
+	 *
+	 * @param t
+	 *            the transformation to the screen
+	 * @param x
+	 *            x of the point
+	 * @param y
+	 *            y of the point
+	 * @param tolerance
+	 *            largest distance to the point, in pixels
+	 * @return index of the connection, or -1 if none
+	 */
+	public int pickConnection(Transformer3D t, float x, float y,
+			float tolerance) {
+		PickIndex index;
+		PickIndices p = pickIndices;
+		synchronized (p) {
+			if (p.con == null) {
+				int a[] = new int[ncon], b[] = new int[ncon];
+				for (int i = 0; i < ncon; i++) {
+					a[i] = getConnectionStart(i);
+					b[i] = getConnectionEnd(i);
+				}
+				QuantizedVertices q = quantized;
+				p.con = q != null ? new PickIndex(q.x, q.y, q.z, a, b, ncon)
+						: new PickIndex(orgX, orgY, orgZ, a, b, ncon);
+			}
+			index = p.con;
+		}
+		return index.pick(pickMatrix(t), x, y, tolerance);
+	}
+
+	/**
+	 * Finds the vertex under a point of the screen: the one nearest to the
+	 * viewer among the vertices within a tolerance of the point. An index of
+	 * the vertices is built on the first pick.
+	 *
+	 * @param t
+	 *            the transformation to the screen
+	 * @param x
+	 *            x of the point
+	 * @param y
+	 *            y of the point
+	 * @param tolerance
+	 *            largest distance to the point, in pixels
+	 * @return index of the vertex, or -1 if none
+	 * @see #pickConnection(Transformer3D, float, float, float)
+	 */
+	public int pickVertex(Transformer3D t, float x, float y, float tolerance) {
+		PickIndex index;
+		PickIndices p = pickIndices;
+		synchronized (p) {
+			if (p.vert == null) {
+				int a[] = new int[nvert];
+				for (int i = 0; i < nvert; i++)
+					a[i] = i;
+				QuantizedVertices q = quantized;
+				p.vert = q != null ? new PickIndex(q.x, q.y, q.z, a, a, nvert)
+						: new PickIndex(orgX, orgY, orgZ, a, a, nvert);
+			}
+			index = p.vert;
+		}
+		return index.pick(pickMatrix(t), x, y, tolerance);
+	}
+
+	/**
+	 * Returns the matrix of a pick, from the coordinates the vertices are
+	 * held in: for a quantized model, the dequantization comes first, so
+	 * that the pick indices are built over the 16 bit coordinates without a
+	 * copy.
+	 */
+	private double[] pickMatrix(Transformer3D t) {
+		QuantizedVertices q = quantized;
+		if (q != null) {
+			if (pickTransformer == null)
+				pickTransformer = new Transformer3D();
+			q.getMatrix(pickTransformer, t);
+			t = pickTransformer;
+		}
+		t.getMatrix(pickMatrix);
+		return pickMatrix;
 	}
 }
@@ -0,0 +1,260 @@
+package j3d;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads OBJ models in the background. A load returns at once with a future
+ * of the model; while the model is parsed, a listener is told how far the
+ * load is and is handed previews of the model read so far, which can be
+ * drawn while the rest is loading.
+ * <p>
+ * Models are loaded with duplicate connections dropped, their boundaries
+ * found and compressed, as a viewer needs them. Files are read through a
+ * {@link ModelCache} when one is set; there is no preview then.
+ *
+ * @author Yizhuan Yu
+ */
+public class ObjModelLoader {
+
+	/**
+	 * Receives the progress of a load, on the loading thread.
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * Called while the model is loading, and once at the end.
+		 *
+		 * @param bytesRead
+		 *            bytes read so far
+		 * @param totalBytes
+		 *            size of the model, -1 if not known
+		 * @param preview
+		 *            the vertices and connections read so far, with their
+		 *            boundaries found, or null at the end. It shares its
+		 *            data with the model being loaded and must not be
+		 *            changed except by transforming it.
+		 */
+		void progress(long bytesRead, long totalBytes, ObjModel3D preview);
+	}
+
+	/**
+	 * Time between two progress reports, in nanoseconds.
+	 */
+	private static final long PROGRESS_INTERVAL = 100000000L;
+
+	/**
+	 * Threads of the loaders created without an executor.
+	 */
+	private static final ExecutorService THREADS = Executors
+			.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "J3D loader");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final Executor executor;
+	private volatile ModelCache cache;
+
+	/**
+	 * Constructs a loader running loads on threads of its own.
+	 */
+	public ObjModelLoader() {
+		this(THREADS);
+	}
+
+	/**
+	 * Constructs a loader.
+	 *
+	 * @param executor
+	 *            the executor running the loads; loads block on I/O
+	 */
+	public ObjModelLoader(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the cache of models loaded from files.
+	 *
+	 * @param cache
+	 *            the cache, or null for none
+	 */
+	public void setCache(ModelCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the cache of models loaded from files.
+	 *
+	 * @return the cache, or null for none
+	 */
+	public ModelCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Loads a model from a file.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @param listener
+	 *            the progress listener, or null
+	 * @return the future model; cancelling it stops the load
+	 */
+	public CompletableFuture<ObjModel3D> load(Path path,
+			ProgressListener listener) {
+		try {
+			return load(path.toUri().toURL(), listener);
+		} catch (IOException e) {
+			CompletableFuture<ObjModel3D> f = new CompletableFuture<>();
+			f.completeExceptionally(e);
+			return f;
+		}
+	}
+
+	/**
+	 * Loads a model from a URL.
+	 *
+	 * @param url
+	 *            the OBJ model
+	 * @param listener
+	 *            the progress listener, or null
+	 * @return the future model; cancelling it stops the load
+	 */
+	public CompletableFuture<ObjModel3D> load(URL url,
+			ProgressListener listener) {
+		return load(url, cache, listener);
+	}
+
+	/**
+	 * Loads a model from a URL through a cache other than the one set.
+	 *
+	 * @param url
+	 *            the OBJ model
+	 * @param c
+	 *            the cache of files, or null for none
+	 * @param listener
+	 *            the progress listener, or null
+	 * @return the future model; cancelling it stops the load
+	 */
+	public CompletableFuture<ObjModel3D> load(URL url, ModelCache c,
+			ProgressListener listener) {
+		CompletableFuture<ObjModel3D> future = new CompletableFuture<>();
+		executor.execute(() -> {
+			if (future.isDone())
+				return;// cancelled before it started
+			try {
+				if (c != null && "file".equals(url.getProtocol()))
+					future.complete(readCached(c, url, listener));
+				else
+					future.complete(read(url, listener, future));
+			} catch (IOException | ObjFileFormatException | URISyntaxException
+					| RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Loads a model on the current thread.
+	 */
+	private static ObjModel3D read(URL url, ProgressListener listener,
+			CompletableFuture<?> future) throws IOException,
+			ObjFileFormatException {
+		URLConnection c = url.openConnection();
+		long total = c.getContentLengthLong();
+		ObjModel3D m = new ObjModel3D();
+		m.setDeduplicateOnLoad(true);
+		try (ProgressStream is = new ProgressStream(c.getInputStream(), m,
+				total, listener, future)) {
+			m.load(is);
+			m.findBoundary();// find boundary
+			m.compress();// compress model
+			if (listener != null)
+				listener.progress(is.read, total, null);
+		}
+		return m;
+	}
+
+	/**
+	 * Loads a model through a cache on the current thread.
+	 */
+	private static ObjModel3D readCached(ModelCache cache, URL url,
+			ProgressListener listener) throws IOException,
+			ObjFileFormatException, URISyntaxException {
+		Path path = Paths.get(url.toURI());
+		ObjModel3D m = cache.load(path);
+		if (listener != null) {
+			long size = Files.size(path);
+			listener.progress(size, size, null);
+		}
+		return m;
+	}
+
+	/**
+	 * Stream reporting the progress of a load. The parser reads the next
+	 * bytes once it has added all complete records of the previous ones to
+	 * the model, so the model is whole at each read.
+	 */
+	private static class ProgressStream extends FilterInputStream {
+
+		private final ObjModel3D model;
+		private final long total;
+		private final ProgressListener listener;
+		private final CompletableFuture<?> future;
+		private long read;
+		private long reported = System.nanoTime();
+
+		ProgressStream(InputStream in, ObjModel3D model, long total,
+				ProgressListener listener, CompletableFuture<?> future) {
+			super(in);
+			this.model = model;
+			this.total = total;
+			this.listener = listener;
+			this.future = future;
+		}
+
+		@Override
+		public int read() throws IOException {
+			report();
+			int b = super.read();
+			if (b >= 0)
+				read++;
+			return b;
+		}
+
+		@Override
+		public int read(byte b[], int off, int len) throws IOException {
+			report();
+			int n = super.read(b, off, len);
+			if (n > 0)
+				read += n;
+			return n;
+		}
+
+		private void report() throws IOException {
+			if (future.isCancelled())
+				throw new InterruptedIOException("load cancelled");
+			if (listener == null
+					|| System.nanoTime() - reported < PROGRESS_INTERVAL)
+				return;
+			ObjModel3D preview = model.preview();
+			preview.findBoundary();
+			listener.progress(read, total, preview);
+			reported = System.nanoTime();
+		}
+	}
+}
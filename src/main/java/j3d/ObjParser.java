@@ -0,0 +1,487 @@
+package j3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parser of the OBJ format working directly on ASCII bytes. Only vertices (
+ * {@code v}), faces ({@code f}, {@code fo}) and lines ({@code l}) are
+ * reported; all other records are skipped. Face and line elements may use the
+ * {@code v}, {@code v/vt}, {@code v//vn} and {@code v/vt/vn} forms, of which
+ * only the vertex index is used. Negative indices are relative to the
+ * vertices read so far.
+ *
+ * @author Yizhuan Yu
+ */
+class ObjParser {
+
+	/**
+	 * Receives the records found by the parser.
+	 */
+	interface Handler {
+
+		/**
+		 * Called for each vertex.
+		 *
+		 * @param x
+		 *            x coordinate
+		 * @param y
+		 *            y coordinate
+		 * @param z
+		 *            z coordinate
+		 */
+		void vertex(float x, float y, float z);
+
+		/**
+		 * Called for each face.
+		 *
+		 * @param indices
+		 *            zero based vertex indices, only valid during the call
+		 * @param n
+		 *            number of indices
+		 */
+		void face(int indices[], int n);
+
+		/**
+		 * Called for each polyline.
+		 *
+		 * @param indices
+		 *            zero based vertex indices, only valid during the call
+		 * @param n
+		 *            number of indices
+		 */
+		void line(int indices[], int n);
+	}
+
+	/**
+	 * Size of the buffer used when reading streams.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Size of a window when mapping files.
+	 */
+	private static final long MAP_WINDOW = 1L << 30;
+
+	/**
+	 * Exact powers of ten.
+	 */
+	private static final double POW10[] = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+			1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final Handler handler;
+
+	/**
+	 * Number of vertices read so far.
+	 */
+	private int nvert;
+
+	/**
+	 * Current line number, starting from 1.
+	 */
+	private int line = 1;
+
+	/**
+	 * Index list of the current face or line.
+	 */
+	private int indices[] = new int[16];
+
+	/**
+	 * Coordinates of the current vertex.
+	 */
+	private final float coords[] = new float[3];
+
+	/**
+	 * Buffer being parsed and the start of the current line in it.
+	 */
+	private ByteBuffer buf;
+	private int lineStart;
+
+	/**
+	 * Constructs a new parser.
+	 *
+	 * @param handler
+	 *            receiver of the records
+	 */
+	ObjParser(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Sets the position of the parser in a file of which only a part is
+	 * parsed: the number of vertices before the part and the number of its
+	 * first line.
+	 *
+	 * @param nvert
+	 *            number of vertices before the part
+	 * @param line
+	 *            line number of the first line, starting from 1
+	 */
+	void setStart(int nvert, int line) {
+		this.nvert = nvert;
+		this.line = line;
+	}
+
+	/**
+	 * Counts the lines and the vertex records between the position and the
+	 * limit of a buffer, without parsing them.
+	 *
+	 * @param bb
+	 *            the OBJ data
+	 * @param counts
+	 *            the result - number of line terminators and number of
+	 *            vertices
+	 */
+	static void count(ByteBuffer bb, long counts[]) {
+		int limit = bb.limit();
+		long lines = 0, verts = 0;
+		boolean lineStart = true;
+		for (int p = bb.position(); p < limit; p++) {
+			byte c = bb.get(p);
+			if (c == '\n') {
+				lines++;
+				lineStart = true;
+			} else if (lineStart && c != ' ' && c != '\t' && c != '\r'
+					&& c != '\f') {
+				lineStart = false;
+				if (c == 'v'
+						&& (p + 1 == limit || isKeywordEnd(bb.get(p + 1))))
+					verts++;
+			}
+		}
+		counts[0] = lines;
+		counts[1] = verts;
+	}
+
+	/**
+	 * Returns number of vertices read so far.
+	 *
+	 * @return number of vertices
+	 */
+	int getNumberOfVertices() {
+		return nvert;
+	}
+
+	/**
+	 * Parses a stream.
+	 *
+	 * @param is
+	 *            the OBJ data
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	void parse(InputStream is) throws IOException, ObjFileFormatException {
+		byte b[] = new byte[BUFFER_SIZE];
+		int len = 0;
+		while (true) {
+			int r = is.read(b, len, b.length - len);
+			boolean eof = r < 0;
+			if (!eof)
+				len += r;
+			if (eof || len == b.length) {
+				ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+				parse(bb, eof);
+				if (eof)
+					return;
+				int rest = bb.remaining();
+				if (rest == b.length)
+					b = Arrays.copyOf(b, b.length * 2);// line longer than buffer
+				System.arraycopy(b, bb.position(), b, 0, rest);
+				len = rest;
+			}
+		}
+	}
+
+	/**
+	 * Parses a file through memory-mapped windows of its content.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	void parse(Path path) throws IOException, ObjFileFormatException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long pos = 0;
+			long window = MAP_WINDOW;
+			do {
+				long len = Math.min(window, size - pos);
+				boolean eof = pos + len >= size;
+				MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY,
+						pos, len);
+				parse(mb, eof);
+				if (mb.position() == 0 && !eof) {// line longer than window
+					if (window >= Integer.MAX_VALUE)
+						throw new ObjFileFormatException("line too long", line,
+								1);
+					window = Math.min(window * 2, Integer.MAX_VALUE);
+				}
+				pos += mb.position();
+			} while (pos < size);
+		}
+	}
+
+	/**
+	 * Parses all complete lines between the position and the limit of a
+	 * buffer. On return the position is at the start of the first line that
+	 * has not been parsed.
+	 *
+	 * @param bb
+	 *            the OBJ data
+	 * @param eof
+	 *            true if the data ends at the limit of the buffer, so the last
+	 *            line is complete even without a line terminator
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	void parse(ByteBuffer bb, boolean eof) throws ObjFileFormatException {
+		buf = bb;
+		int limit = bb.limit();
+		int p = bb.position();
+		while (p < limit) {
+			int end = p;
+			while (end < limit && bb.get(end) != '\n')
+				end++;
+			if (end == limit && !eof)
+				break;
+			lineStart = p;
+			parseLine(p, end);
+			line++;
+			p = end + 1;
+		}
+		bb.position(Math.min(p, limit));
+		buf = null;
+	}
+
+	/**
+	 * Parses one line without its terminator.
+	 */
+	private void parseLine(int p, int end) throws ObjFileFormatException {
+		ByteBuffer b = buf;
+		p = skipBlank(p, end);
+		if (p >= end)
+			return;
+		int ks = p;
+		while (p < end && !isBlank(b.get(p)))
+			p++;
+		int klen = p - ks;
+		byte k0 = b.get(ks);
+		if (k0 == 'v' && klen == 1) {
+			float c[] = coords;
+			c[0] = c[1] = c[2] = 0;
+			for (int i = 0; i < 3; i++) {
+				p = skipBlank(p, end);
+				if (p >= end)
+					break;
+				p = parseFloat(p, end, c, i);
+			}
+			handler.vertex(c[0], c[1], c[2]);
+			nvert++;
+		} else if ((k0 == 'f' && (klen == 1 || (klen == 2 && b.get(ks + 1) == 'o')))
+				|| (k0 == 'l' && klen == 1)) {
+			int n = 0;
+			while (true) {
+				p = skipBlank(p, end);
+				if (p >= end)
+					break;
+				if (n == indices.length)
+					indices = Arrays.copyOf(indices, n * 2);
+				p = parseIndex(p, end, n++);
+				while (p < end && b.get(p) == '/') {// skip vt and vn
+					p++;
+					if (p < end && b.get(p) != '/' && !isBlank(b.get(p)))
+						p = skipIndex(p, end);
+				}
+				if (p < end && !isBlank(b.get(p)))
+					throw error("unexpected character '" + (char) b.get(p)
+							+ "'", p);
+			}
+			if (k0 == 'l')
+				handler.line(indices, n);
+			else
+				handler.face(indices, n);
+		}
+	}
+
+	/**
+	 * Parses a vertex index and stores the resolved zero based index.
+	 */
+	private int parseIndex(int p, int end, int slot)
+			throws ObjFileFormatException {
+		int start = p;
+		long v = parseLong(p, end);
+		p = scanEnd;
+		if (v == 0)
+			throw error("vertex index 0", start);
+		long idx = v > 0 ? v - 1 : nvert + v;
+		if (idx < 0 || idx > Integer.MAX_VALUE)
+			throw error("vertex index " + v + " out of range", start);
+		indices[slot] = (int) idx;
+		return p;
+	}
+
+	/**
+	 * Validates and skips a texture or normal index.
+	 */
+	private int skipIndex(int p, int end) throws ObjFileFormatException {
+		parseLong(p, end);
+		return scanEnd;
+	}
+
+	/**
+	 * End of the last number scanned.
+	 */
+	private int scanEnd;
+
+	/**
+	 * Scans a signed integer, leaving its end in {@link #scanEnd}.
+	 */
+	private long parseLong(int p, int end) throws ObjFileFormatException {
+		ByteBuffer b = buf;
+		int start = p;
+		boolean neg = false;
+		if (p < end && (b.get(p) == '-' || b.get(p) == '+')) {
+			neg = b.get(p) == '-';
+			p++;
+		}
+		int ds = p;
+		long v = 0;
+		while (p < end) {
+			int d = b.get(p) - '0';
+			if (d < 0 || d > 9)
+				break;
+			if (v > (Long.MAX_VALUE - d) / 10)
+				throw error("number too large", start);
+			v = v * 10 + d;
+			p++;
+		}
+		if (p == ds)
+			throw error("integer expected", start);
+		scanEnd = p;
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Scans a decimal floating point number into {@code out[i]}.
+	 */
+	private int parseFloat(int p, int end, float out[], int i)
+			throws ObjFileFormatException {
+		ByteBuffer b = buf;
+		int start = p;
+		boolean neg = false;
+		if (p < end && (b.get(p) == '-' || b.get(p) == '+')) {
+			neg = b.get(p) == '-';
+			p++;
+		}
+		long mant = 0;
+		int digits = 0;// significant digits in mant
+		int exp = 0;
+		boolean any = false;
+		byte c = 0;
+		while (p < end && (c = b.get(p)) >= '0' && c <= '9') {
+			any = true;
+			if (digits < 18) {
+				mant = mant * 10 + (c - '0');
+				if (mant != 0)
+					digits++;
+			} else {
+				exp++;
+			}
+			p++;
+		}
+		if (p < end && b.get(p) == '.') {
+			p++;
+			while (p < end && (c = b.get(p)) >= '0' && c <= '9') {
+				any = true;
+				if (digits < 18) {
+					mant = mant * 10 + (c - '0');
+					if (mant != 0)
+						digits++;
+					exp--;
+				}
+				p++;
+			}
+		}
+		if (!any)
+			throw error("number expected", start);
+		if (p < end && ((c = b.get(p)) == 'e' || c == 'E')) {
+			int es = p;
+			p++;
+			boolean eneg = false;
+			if (p < end && (b.get(p) == '-' || b.get(p) == '+')) {
+				eneg = b.get(p) == '-';
+				p++;
+			}
+			int e = 0;
+			int ds = p;
+			while (p < end && (c = b.get(p)) >= '0' && c <= '9') {
+				if (e < 100000)
+					e = e * 10 + (c - '0');
+				p++;
+			}
+			if (p == ds)
+				throw error("malformed exponent", es);
+			exp += eneg ? -e : e;
+		}
+		if (p < end && !isBlank(b.get(p)))
+			throw error("unexpected character '" + (char) b.get(p) + "'", p);
+		double v;
+		if (mant == 0) {
+			v = 0;
+		} else if (exp >= 0 && exp <= 22 && mant < (1L << 53)) {
+			v = mant * POW10[exp];
+		} else if (exp < 0 && exp >= -22 && mant < (1L << 53)) {
+			v = mant / POW10[-exp];
+		} else {
+			byte s[] = new byte[p - start];
+			for (int k = 0; k < s.length; k++)
+				s[k] = b.get(start + k);
+			v = Double.parseDouble(new String(s, StandardCharsets.US_ASCII));
+			neg = false;
+		}
+		out[i] = (float) (neg ? -v : v);
+		return p;
+	}
+
+	private int skipBlank(int p, int end) {
+		ByteBuffer b = buf;
+		while (p < end) {
+			byte c = b.get(p);
+			if (c == '#')
+				return end;
+			if (!isBlank(c))
+				break;
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isBlank(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '#';
+	}
+
+	/**
+	 * Checks whether a byte ends a keyword, as {@link #parseLine(int, int)}
+	 * reads it: a blank or the end of the line.
+	 */
+	private static boolean isKeywordEnd(byte c) {
+		return c == '\n' || isBlank(c);
+	}
+
+	private ObjFileFormatException error(String msg, int p) {
+		return new ObjFileFormatException(msg, line, p - lineStart + 1);
+	}
+}
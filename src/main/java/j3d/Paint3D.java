@@ -3,6 +3,8 @@ package j3d;
 import java.awt.Color;
 import java.awt.Graphics;
 
+import j3d.PipelineMetrics.Stage;
+
 /**
  * Draws 3D object on screen.
  *
@@ -11,7 +13,21 @@ import java.awt.Graphics;
  */
 public class Paint3D {
 
-	private static Color gr[];
+	/**
+	 * The 16 depth cue levels as RGB values, from light (far) to black
+	 * (near).
+	 */
+	static final int GREY[] = new int[16];
+
+	private static final Color gr[] = new Color[16];
+
+	static {
+		for (int i = 0; i < 16; i++) {
+			int grey = (int) (192 * (1 - Math.pow(i / 15.0, 2.3)));
+			GREY[i] = (grey << 16) | (grey << 8) | grey;
+			gr[i] = new Color(GREY[i]);
+		}
+	}
 
 	/**
 	 * Constructs a new object.
@@ -28,42 +44,51 @@ public class Paint3D {
 	 */
 	public void paint(Graphics g, ObjModel3D model) {
 
-		if (gr == null) {
-			gr = new Color[16];
-			for (int i = 0; i < 16; i++) {
-				int grey = (int) (192 * (1 - Math.pow(i / 15.0, 2.3)));
-				gr[i] = new Color(grey, grey, grey);
-			}
-		}
 		int lg = 0;
 		int lim = model.getNumberOfConnections();
-		int c[] = model.getConnections();
 
-		Point3D vertices[] = model.getVertices();
+		float x[] = model.getX();
+		float y[] = model.getY();
+		float z[] = model.getZ();
 		if (lim <= 0 || model.getNumberOfVertices() <= 0)
 			return;
 
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
 		for (int i = 0; i < lim; i++) {
-			int T = c[i];
-			int p1 = ((T >> 16) & 0xFFFF);
-			int p2 = (T & 0xFFFF);
+			if (!model.isConnectionVisible(i))
+				continue;
+			int p1 = model.getConnectionStart(i);
+			int p2 = model.getConnectionEnd(i);
 
-			int grey = (int) vertices[p1].z + (int) vertices[p2].z;
-			if (grey < 0) {
-				grey = 0;
-			}
-			if (grey > 15)
-				grey = 15;
+			int grey = greyLevel(z[p1], z[p2]);
 			if (grey != lg) {
 				lg = grey;
 				g.setColor(gr[grey]);
 			}
 
-			g.drawLine((int) vertices[p1].x, (int) vertices[p1].y,
-					(int) vertices[p2].x, (int) vertices[p2].y);
+			g.drawLine((int) x[p1], (int) y[p1], (int) x[p2], (int) y[p2]);
 
 		}
+		PipelineMetrics.record(Stage.RASTERIZE, start, alloc);
+
+	}
 
+	/**
+	 * Returns the depth cue level of a connection.
+	 *
+	 * @param z1
+	 *            transformed z of the starting point
+	 * @param z2
+	 *            transformed z of the end point
+	 * @return the level, from 0 (far) to 15 (near)
+	 */
+	static int greyLevel(float z1, float z2) {
+		int grey = (int) z1 + (int) z2;
+		if (grey < 0)
+			return 0;
+		if (grey > 15)
+			return 15;
+		return grey;
 	}
 
 }
@@ -0,0 +1,257 @@
+package j3d;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads an OBJ file on several cores. The file is split into line-aligned
+ * chunks; a first pass counts the lines and vertices of each chunk so that
+ * every chunk knows its first vertex number and line number, and a second
+ * pass parses the chunks. Vertices go straight into the model, faces and
+ * lines are buffered per chunk and added to the model in file order.
+ *
+ * @author Yizhuan Yu
+ */
+class ParallelObjLoader {
+
+	/**
+	 * Smallest chunk worth a task.
+	 */
+	private static final long MIN_CHUNK = 1L << 20;
+
+	/**
+	 * Largest chunk, so that a chunk can be mapped at once.
+	 */
+	private static final long MAX_CHUNK = 1L << 30;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a new loader.
+	 *
+	 * @param pool
+	 *            the pool running the chunks
+	 */
+	ParallelObjLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Loads a file into a model.
+	 *
+	 * @param path
+	 *            the OBJ file
+	 * @param model
+	 *            the model to fill
+	 * @throws IOException
+	 *             thrown when I/O access failed.
+	 * @throws ObjFileFormatException
+	 *             thrown when the OBJ file format is incorrect.
+	 */
+	void load(Path path, ObjModel3D model) throws IOException,
+			ObjFileFormatException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long bounds[] = split(ch, size);
+			int n = bounds.length - 1;
+
+			final MappedByteBuffer chunks[] = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++)
+				chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, bounds[i],
+						bounds[i + 1] - bounds[i]);
+
+			final long counts[][] = new long[n][2];
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(n);
+			for (int i = 0; i < n; i++) {
+				final int c = i;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						ObjParser.count(chunks[c], counts[c]);
+						return null;
+					}
+				});
+			}
+			run(tasks);
+
+			final int firstVert[] = new int[n];
+			final int firstLine[] = new int[n];
+			long verts = 0, lines = 1;
+			for (int i = 0; i < n; i++) {
+				firstVert[i] = (int) verts;
+				firstLine[i] = (int) Math.min(lines, Integer.MAX_VALUE);
+				verts += counts[i][1];
+				lines += counts[i][0];
+			}
+			if (verts > Integer.MAX_VALUE)
+				throw new ObjFileFormatException("too many vertices: " + verts);
+			final int base = model.getNumberOfVertices();
+			model.ensureVertices(base + (int) verts);
+
+			final Chunk parsed[] = new Chunk[n];
+			tasks.clear();
+			for (int i = 0; i < n; i++) {
+				final int c = i;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws ObjFileFormatException {
+						Chunk chunk = new Chunk(model, base + firstVert[c]);
+						ObjParser parser = new ObjParser(chunk);
+						parser.setStart(base + firstVert[c], firstLine[c]);
+						parser.parse(chunks[c], true);
+						parsed[c] = chunk;
+						return null;
+					}
+				});
+			}
+			run(tasks);
+
+			for (int i = 0; i < n; i++) {
+				parsed[i].flush(model);
+				parsed[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Splits a file into chunks which start at the beginning of a line.
+	 *
+	 * @return offsets of the chunks, the last one is the file size
+	 */
+	private long[] split(FileChannel ch, long size) throws IOException {
+		int want = pool.getParallelism() * 4;
+		long chunk = Math.max(MIN_CHUNK, (size + want - 1) / want);
+		chunk = Math.min(chunk, MAX_CHUNK);
+		long bounds[] = new long[(int) ((size + chunk - 1) / chunk) + 1];
+		int n = 0;
+		long pos = 0;
+		bounds[n++] = 0;
+		while (pos < size) {
+			long next = nextLine(ch, Math.min(pos + chunk, size), size);
+			bounds[n++] = next;
+			pos = next;
+		}
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * Returns the offset after the first line terminator at or after pos.
+	 */
+	private static long nextLine(FileChannel ch, long pos, long size)
+			throws IOException {
+		while (pos < size) {
+			long len = Math.min(1 << 16, size - pos);
+			MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, pos,
+					len);
+			for (int i = 0; i < len; i++)
+				if (b.get(i) == '\n')
+					return pos + i + 1;
+			pos += len;
+		}
+		return size;
+	}
+
+	private void run(List<Callable<Void>> tasks) throws IOException,
+			ObjFileFormatException {
+		for (Future<Void> f : pool.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				Throwable t = e.getCause();
+				if (t instanceof ObjFileFormatException)
+					throw (ObjFileFormatException) t;
+				if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				if (t instanceof Error)
+					throw (Error) t;
+				throw new IOException(t);
+			}
+		}
+	}
+
+	/**
+	 * The records of one chunk. Vertices are stored in the model directly,
+	 * faces and lines are kept until the chunk is flushed. Indices of
+	 * vertices not read yet when the record was parsed are replaced by
+	 * {@link Integer#MAX_VALUE}, so the model drops them as it does when
+	 * loading sequentially.
+	 */
+	private static class Chunk implements ObjParser.Handler {
+
+		private final ObjModel3D model;
+		private int nvert;
+
+		/**
+		 * Vertex indices of all records.
+		 */
+		private int indices[] = new int[1024];
+		private int nindices;
+
+		/**
+		 * Number of indices of each record, negative for lines.
+		 */
+		private int sizes[] = new int[256];
+		private int nrecords;
+
+		Chunk(ObjModel3D model, int nvert) {
+			this.model = model;
+			this.nvert = nvert;
+		}
+
+		@Override
+		public void vertex(float x, float y, float z) {
+			model.setVertex(nvert++, x, y, z);
+		}
+
+		@Override
+		public void face(int idx[], int n) {
+			record(idx, n, n);
+		}
+
+		@Override
+		public void line(int idx[], int n) {
+			record(idx, n, -n);
+		}
+
+		private void record(int idx[], int n, int size) {
+			if (nindices + n > indices.length)
+				indices = Arrays.copyOf(indices,
+						Math.max(indices.length * 2, nindices + n));
+			for (int i = 0; i < n; i++) {
+				int v = idx[i];
+				indices[nindices++] = v < nvert ? v : Integer.MAX_VALUE;
+			}
+			if (nrecords == sizes.length)
+				sizes = Arrays.copyOf(sizes, nrecords * 2);
+			sizes[nrecords++] = size;
+		}
+
+		/**
+		 * Adds the records to the model.
+		 */
+		void flush(ObjModel3D model) {
+			int off = 0;
+			for (int r = 0; r < nrecords; r++) {
+				int size = sizes[r];
+				int n = size < 0 ? -size : size;
+				if (size > 0)
+					model.addFace(indices, off, n);
+				model.addPolygon(indices, off, n);
+				off += n;
+			}
+		}
+	}
+}
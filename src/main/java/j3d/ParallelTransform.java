@@ -0,0 +1,173 @@
+package j3d;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transforms the vertices of a model on several threads. Every vertex is
+ * computed exactly as by {@link Transformer3D}, only the vertex range is
+ * split, so the result does not depend on the number of threads.
+ *
+ * @author Yizhuan Yu
+ */
+class ParallelTransform extends RecursiveAction {
+
+	private static final long serialVersionUID = 4290116624271338211L;
+
+	/**
+	 * Number of vertices below which a range is not split any more.
+	 */
+	static final int GRAIN = 1 << 14;
+
+	private final Transformer3D t;
+	private final float x[], y[], z[], tx[], ty[], tz[];
+	private final short qx[], qy[], qz[];
+	private final int from, to;
+
+	private ParallelTransform(Transformer3D t, float x[], float y[],
+			float z[], short qx[], short qy[], short qz[], float tx[],
+			float ty[], float tz[], int from, int to) {
+		this.t = t;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.qx = qx;
+		this.qy = qy;
+		this.qz = qz;
+		this.tx = tx;
+		this.ty = ty;
+		this.tz = tz;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Returns the task transforming a part of the range of this one.
+	 */
+	private ParallelTransform part(int from, int to) {
+		return new ParallelTransform(t, x, y, z, qx, qy, qz, tx, ty, tz,
+				from, to);
+	}
+
+	/**
+	 * Transforms a range of vertices on the current thread.
+	 */
+	private void transform(int from, int to) {
+		if (qx != null)
+			t.transform(qx, qy, qz, tx, ty, tz, from, to);
+		else
+			t.transform(x, y, z, tx, ty, tz, from, to);
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= GRAIN) {
+			transform(from, to);
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		invokeAll(part(from, mid), part(mid, to));
+	}
+
+	/**
+	 * Transforms vertices on an executor and waits for the result. A
+	 * ForkJoin pool runs the range as recursive tasks, any other executor
+	 * gets one task per available processor.
+	 *
+	 * @param executor
+	 *            the executor
+	 * @param t
+	 *            the transformer
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param n
+	 *            number of vertices to be transformed
+	 */
+	static void transform(Executor executor, Transformer3D t, float x[],
+			float y[], float z[], float tx[], float ty[], float tz[], int n) {
+		run(executor, new ParallelTransform(t, x, y, z, null, null, null, tx,
+				ty, tz, 0, n));
+	}
+
+	/**
+	 * Transforms vertices with 16 bit coordinates on an executor and waits
+	 * for the result.
+	 *
+	 * @param executor
+	 *            the executor
+	 * @param t
+	 *            the transformer, including the dequantization
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param n
+	 *            number of vertices to be transformed
+	 * @see #transform(Executor, Transformer3D, float[], float[], float[],
+	 *      float[], float[], float[], int)
+	 */
+	static void transform(Executor executor, Transformer3D t, short x[],
+			short y[], short z[], float tx[], float ty[], float tz[], int n) {
+		run(executor, new ParallelTransform(t, null, null, null, x, y, z, tx,
+				ty, tz, 0, n));
+	}
+
+	private static void run(Executor executor, final ParallelTransform task) {
+		if (executor instanceof ForkJoinPool) {
+			((ForkJoinPool) executor).invoke(task);
+			return;
+		}
+		int n = task.to;
+		int parts = Math.max(1, Math.min(Runtime.getRuntime()
+				.availableProcessors(), (n + GRAIN - 1) / GRAIN));
+		final CountDownLatch done = new CountDownLatch(parts - 1);
+		final RuntimeException failure[] = new RuntimeException[1];
+		int step = (n + parts - 1) / parts;
+		for (int p = 1; p < parts; p++) {
+			final int from = p * step;
+			final int to = Math.min(n, from + step);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.transform(from, to);
+					} catch (RuntimeException e) {
+						failure[0] = e;
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		task.transform(0, Math.min(n, step));
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while transforming",
+					e);
+		}
+		if (failure[0] != null)
+			throw failure[0];
+	}
+}
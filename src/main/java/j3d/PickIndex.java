@@ -0,0 +1,397 @@
+package j3d;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over segments of a model, in model coordinates,
+ * for finding the segment under a point of the screen. A vertex is a
+ * segment from the vertex to itself.
+ * <p>
+ * A pick casts a ray through the screen point along the view direction: the
+ * boxes of the hierarchy are carried to the screen through the matrix of
+ * the transformation, and only boxes the ray passes within the tolerance of
+ * are opened, nearest first, so a pick visits a few dozen boxes whatever the
+ * size of the model.
+ * <p>
+ * The vertices are read from the model, either as floats or as the 16 bit
+ * coordinates of a quantized model, which are not copied: the pick matrix
+ * of a quantized model includes the dequantization.
+ *
+ * @author Yizhuan Yu
+ */
+final class PickIndex {
+
+	/**
+	 * Largest number of segments in a leaf.
+	 */
+	private static final int LEAF = 8;
+
+	/**
+	 * End points of each segment.
+	 */
+	private final int a[], b[];
+
+	/**
+	 * Segments in leaf order.
+	 */
+	private final int order[];
+
+	/**
+	 * Box of each node: min x, y, z, then max x, y, z.
+	 */
+	private final float box[];
+
+	/**
+	 * First child of an inner node, the second one follows it; or first
+	 * segment of a leaf in {@link #order}.
+	 */
+	private final int first[];
+
+	/**
+	 * Number of segments of a leaf, 0 for inner nodes.
+	 */
+	private final int size[];
+
+	private final float x[], y[], z[];
+	private final short qx[], qy[], qz[];
+
+	/**
+	 * Builds the hierarchy over float coordinates.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices
+	 * @param y
+	 *            y coordinates of the vertices
+	 * @param z
+	 *            z coordinates of the vertices
+	 * @param a
+	 *            first end point of each segment
+	 * @param b
+	 *            second end point of each segment
+	 * @param n
+	 *            number of segments
+	 */
+	PickIndex(float x[], float y[], float z[], int a[], int b[], int n) {
+		this(x, y, z, null, null, null, a, b, n);
+	}
+
+	/**
+	 * Builds the hierarchy over 16 bit coordinates.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices
+	 * @param y
+	 *            y coordinates of the vertices
+	 * @param z
+	 *            z coordinates of the vertices
+	 * @param a
+	 *            first end point of each segment
+	 * @param b
+	 *            second end point of each segment
+	 * @param n
+	 *            number of segments
+	 * @see QuantizedVertices
+	 */
+	PickIndex(short x[], short y[], short z[], int a[], int b[], int n) {
+		this(null, null, null, x, y, z, a, b, n);
+	}
+
+	private PickIndex(float x[], float y[], float z[], short qx[],
+			short qy[], short qz[], int a[], int b[], int n) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.qx = qx;
+		this.qy = qy;
+		this.qz = qz;
+		this.a = a;
+		this.b = b;
+		order = new int[n];
+		// twice the centers, in the order of the segments in the leaves
+		float c[][] = new float[3][n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			c[0][i] = getX(a[i]) + getX(b[i]);
+			c[1][i] = getY(a[i]) + getY(b[i]);
+			c[2][i] = getZ(a[i]) + getZ(b[i]);
+		}
+		// halving ranges larger than LEAF, leaves hold at least LEAF / 2
+		int maxNodes = n / (LEAF / 4) + 1;
+		box = new float[6 * maxNodes];
+		first = new int[maxNodes];
+		size = new int[maxNodes];
+
+		// ranges to split, with their node
+		int stack[] = new int[3 * 64];
+		int sp = 0;
+		int nnode = 1;
+		stack[sp++] = 0;
+		stack[sp++] = 0;
+		stack[sp++] = n;
+		while (sp > 0) {
+			int hi = stack[--sp], lo = stack[--sp], node = stack[--sp];
+			int axis = hi - lo <= LEAF ? -1 : splitAxis(c, lo, hi);
+			if (axis < 0) {
+				first[node] = lo;
+				size[node] = hi - lo;
+				continue;
+			}
+			int mid = (lo + hi) >>> 1;
+			select(c, axis, lo, hi - 1, mid);
+			int left = nnode;
+			nnode += 2;
+			first[node] = left;
+			size[node] = 0;
+			if (sp + 6 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[sp++] = left;
+			stack[sp++] = lo;
+			stack[sp++] = mid;
+			stack[sp++] = left + 1;
+			stack[sp++] = mid;
+			stack[sp++] = hi;
+		}
+
+		// children come after their parent
+		for (int node = nnode - 1; node >= 0; node--) {
+			if (size[node] > 0 || node == 0 && n == 0)
+				leafBox(node);
+			else
+				unionBox(node);
+		}
+	}
+
+	private float getX(int p) {
+		return qx != null ? qx[p] : x[p];
+	}
+
+	private float getY(int p) {
+		return qy != null ? qy[p] : y[p];
+	}
+
+	private float getZ(int p) {
+		return qz != null ? qz[p] : z[p];
+	}
+
+	/**
+	 * Returns the axis to split a range along: the longest side of the box
+	 * of the segment centers, or -1 if the centers are all the same.
+	 */
+	private static int splitAxis(float c[][], int lo, int hi) {
+		int axis = -1;
+		float longest = 0;
+		for (int d = 0; d < 3; d++) {
+			float v[] = c[d];
+			float min = v[lo], max = min;
+			for (int k = lo + 1; k < hi; k++) {
+				float f = v[k];
+				if (f < min)
+					min = f;
+				if (f > max)
+					max = f;
+			}
+			if (max - min > longest) {
+				longest = max - min;
+				axis = d;
+			}
+		}
+		return axis;
+	}
+
+	/**
+	 * Sets the box of a leaf from its segments.
+	 */
+	private void leafBox(int node) {
+		float x0 = Float.MAX_VALUE, y0 = x0, z0 = x0;
+		float x1 = -Float.MAX_VALUE, y1 = x1, z1 = x1;
+		for (int k = first[node], e = k + size[node]; k < e; k++) {
+			int s = order[k];
+			int p = a[s], q = b[s];
+			float xp = getX(p), xq = getX(q);
+			float yp = getY(p), yq = getY(q);
+			float zp = getZ(p), zq = getZ(q);
+			x0 = Math.min(x0, Math.min(xp, xq));
+			x1 = Math.max(x1, Math.max(xp, xq));
+			y0 = Math.min(y0, Math.min(yp, yq));
+			y1 = Math.max(y1, Math.max(yp, yq));
+			z0 = Math.min(z0, Math.min(zp, zq));
+			z1 = Math.max(z1, Math.max(zp, zq));
+		}
+		int o = 6 * node;
+		box[o] = x0;
+		box[o + 1] = y0;
+		box[o + 2] = z0;
+		box[o + 3] = x1;
+		box[o + 4] = y1;
+		box[o + 5] = z1;
+	}
+
+	/**
+	 * Sets the box of an inner node from the boxes of its children.
+	 */
+	private void unionBox(int node) {
+		int o = 6 * node, l = 6 * first[node], r = l + 6;
+		for (int d = 0; d < 3; d++) {
+			box[o + d] = Math.min(box[l + d], box[r + d]);
+			box[o + 3 + d] = Math.max(box[l + 3 + d], box[r + 3 + d]);
+		}
+	}
+
+	/**
+	 * Reorders the segments from lo to hi, inclusive, so that the one at k
+	 * has the k-th smallest center along an axis, smaller ones before it and
+	 * larger ones after.
+	 */
+	private void select(float c[][], int axis, int lo, int hi, int k) {
+		int o[] = order;
+		float key[] = c[axis], c0[] = c[0], c1[] = c[1], c2[] = c[2];
+		while (hi > lo) {
+			float pivot = key[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (key[i] < pivot)
+					i++;
+				while (key[j] > pivot)
+					j--;
+				if (i <= j) {
+					int t = o[i];
+					o[i] = o[j];
+					o[j] = t;
+					float f = c0[i];
+					c0[i] = c0[j];
+					c0[j] = f;
+					f = c1[i];
+					c1[i] = c1[j];
+					c1[j] = f;
+					f = c2[i];
+					c2[i++] = c2[j];
+					c2[j--] = f;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Finds the segment nearest to the viewer among the segments passing
+	 * within a tolerance of a screen point.
+	 *
+	 * @param m
+	 *            the matrix of the transformation to the screen
+	 * @param sx
+	 *            x of the point on screen
+	 * @param sy
+	 *            y of the point on screen
+	 * @param tolerance
+	 *            largest distance on screen, in pixels
+	 * @return the segment, or -1 if none
+	 */
+	int pick(double m[], float sx, float sy, float tolerance) {
+		if (order.length == 0)
+			return -1;
+		double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+		double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+		double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+		double tol2 = (double) tolerance * tolerance;
+		int best = -1;
+		double bestZ = Double.NEGATIVE_INFINITY, bestD = 0;
+		int stack[] = new int[128];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int node = stack[--sp];
+			if (nearest(m, node) < bestZ)
+				continue;
+			if (size[node] == 0) {
+				int l = first[node], r = l + 1;
+				boolean hl = hit(m, l, sx, sy, tolerance), hr = hit(m, r, sx,
+						sy, tolerance);
+				if (sp + 2 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				// the nearer child is opened first
+				if (hl && hr && nearest(m, l) > nearest(m, r)) {
+					stack[sp++] = r;
+					stack[sp++] = l;
+				} else {
+					if (hl)
+						stack[sp++] = l;
+					if (hr)
+						stack[sp++] = r;
+				}
+				continue;
+			}
+			for (int k = first[node], e = k + size[node]; k < e; k++) {
+				int s = order[k];
+				int p = a[s], q = b[s];
+				double vx = getX(p), vy = getY(p), vz = getZ(p);
+				double px = m00 * vx + m01 * vy + m02 * vz + m03;
+				double py = m10 * vx + m11 * vy + m12 * vz + m13;
+				double pz = m20 * vx + m21 * vy + m22 * vz + m23;
+				vx = getX(q);
+				vy = getY(q);
+				vz = getZ(q);
+				double qx = m00 * vx + m01 * vy + m02 * vz + m03;
+				double qy = m10 * vx + m11 * vy + m12 * vz + m13;
+				double qz = m20 * vx + m21 * vy + m22 * vz + m23;
+				// closest point of the segment on screen
+				double dx = qx - px, dy = qy - py;
+				double len2 = dx * dx + dy * dy;
+				double t = len2 == 0 ? 0 : ((sx - px) * dx + (sy - py) * dy)
+						/ len2;
+				t = t < 0 ? 0 : t > 1 ? 1 : t;
+				double ex = px + t * dx - sx, ey = py + t * dy - sy;
+				double d = ex * ex + ey * ey;
+				if (d > tol2)
+					continue;
+				double cz = pz + t * (qz - pz);
+				if (cz > bestZ || (cz == bestZ && d < bestD)) {
+					best = s;
+					bestZ = cz;
+					bestD = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Checks whether the box of a node comes within the tolerance of a
+	 * screen point.
+	 */
+	private boolean hit(double m[], int node, float sx, float sy,
+			float tolerance) {
+		int o = 6 * node;
+		double cx = (box[o] + (double) box[o + 3]) / 2, ex = box[o + 3] - cx;
+		double cy = (box[o + 1] + (double) box[o + 4]) / 2, ey = box[o + 4]
+				- cy;
+		double cz = (box[o + 2] + (double) box[o + 5]) / 2, ez = box[o + 5]
+				- cz;
+		double x = m[0] * cx + m[1] * cy + m[2] * cz + m[3];
+		double hx = Math.abs(m[0]) * ex + Math.abs(m[1]) * ey
+				+ Math.abs(m[2]) * ez;
+		if (Math.abs(x - sx) > hx + tolerance)
+			return false;
+		double y = m[4] * cx + m[5] * cy + m[6] * cz + m[7];
+		double hy = Math.abs(m[4]) * ex + Math.abs(m[5]) * ey
+				+ Math.abs(m[6]) * ez;
+		return Math.abs(y - sy) <= hy + tolerance;
+	}
+
+	/**
+	 * Returns the greatest depth of the box of a node on screen.
+	 */
+	private double nearest(double m[], int node) {
+		int o = 6 * node;
+		double z = m[11];
+		for (int c = 0; c < 3; c++) {
+			double f = m[8 + c];
+			z += f * (f >= 0 ? box[o + 3 + c] : box[o + c]);
+		}
+		return z;
+	}
+}
@@ -0,0 +1,278 @@
+package j3d;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the stages of the pipeline, from
+ * loading a model to showing a frame. The stages record themselves; the
+ * figures are read with {@link #getStatistics(Stage)} or through JMX, under
+ * the name {@value #OBJECT_NAME}.
+ * <p>
+ * Recording does not allocate and does not lock: every stage adds to
+ * {@link LongAdder}s. Latencies go to histograms with one bucket per power
+ * of two nanoseconds, so percentiles are accurate within a factor of two.
+ * Allocated bytes are measured per thread when the JVM supports it.
+ *
+ * @author Yizhuan Yu
+ */
+public final class PipelineMetrics implements PipelineMetricsMXBean {
+
+	/**
+	 * Stages of the pipeline.
+	 */
+	public enum Stage {
+		/** Parsing a model. */
+		LOAD,
+		/** Dropping duplicate connections. */
+		DEDUP,
+		/** Finding the boundaries of a model. */
+		BOUNDS,
+		/** Transforming the vertices. */
+		TRANSFORM,
+		/** Drawing the model. */
+		RASTERIZE,
+		/** Copying the image to the screen. */
+		BLIT
+	}
+
+	/**
+	 * JMX name of the metrics.
+	 */
+	public static final String OBJECT_NAME = "j3d:type=PipelineMetrics";
+
+	private static final Stage STAGES[] = Stage.values();
+
+	private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	/**
+	 * Duration of the last run of each stage on each thread.
+	 */
+	private static final ThreadLocal<long[]> LAST = ThreadLocal
+			.withInitial(() -> new long[STAGES.length]);
+
+	private static volatile boolean enabled = true;
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+					new ObjectName(OBJECT_NAME));
+		} catch (JMException | SecurityException e) {
+			// metrics stay readable through getStatistics
+		}
+	}
+
+	/**
+	 * Latencies of one stage.
+	 */
+	private static final class Histogram {
+		final LongAdder nanos = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		final LongAdder buckets[] = new LongAdder[64];
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+	}
+
+	private final Histogram histograms[] = new Histogram[STAGES.length];
+
+	private PipelineMetrics() {
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new Histogram();
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			java.lang.management.ThreadMXBean t = ManagementFactory
+					.getThreadMXBean();
+			if (t instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean s = (com.sun.management.ThreadMXBean) t;
+				if (s.isThreadAllocatedMemorySupported()
+						&& s.isThreadAllocatedMemoryEnabled())
+					return s;
+			}
+		} catch (LinkageError | SecurityException e) {
+			// not a HotSpot JVM
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the metrics.
+	 *
+	 * @return the metrics of this JVM
+	 */
+	public static PipelineMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets whether stages are recorded.
+	 *
+	 * @param enabled
+	 *            true to record stages
+	 */
+	public static void setEnabled(boolean enabled) {
+		PipelineMetrics.enabled = enabled;
+	}
+
+	/**
+	 * Checks whether stages are recorded.
+	 *
+	 * @return true if stages are recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread, to be passed
+	 * to {@link #record(Stage, long, long)}.
+	 *
+	 * @return allocated bytes, or -1 if not measured
+	 */
+	public static long allocated() {
+		com.sun.management.ThreadMXBean t = THREADS;
+		return t == null || !enabled ? -1 : t.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Records a run of a stage on the current thread.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param start
+	 *            {@link System#nanoTime()} at the start of the run
+	 * @param allocatedAtStart
+	 *            {@link #allocated()} at the start of the run
+	 * @return the duration in nanoseconds
+	 */
+	public static long record(Stage stage, long start, long allocatedAtStart) {
+		long nanos = System.nanoTime() - start;
+		if (!enabled)
+			return nanos;
+		Histogram h = INSTANCE.histograms[stage.ordinal()];
+		h.nanos.add(nanos);
+		h.max.accumulate(nanos);
+		h.buckets[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+		if (allocatedAtStart >= 0) {
+			long a = allocated();
+			if (a >= allocatedAtStart)
+				h.bytes.add(a - allocatedAtStart);
+		}
+		LAST.get()[stage.ordinal()] = nanos;
+		return nanos;
+	}
+
+	/**
+	 * Returns the duration of the last run of a stage on the current thread.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the duration in nanoseconds, 0 if the stage did not run
+	 */
+	public static long lastNanos(Stage stage) {
+		return LAST.get()[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the figures of a stage.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @return the figures so far
+	 */
+	public StageStatistics getStatistics(Stage stage) {
+		Histogram h = histograms[stage.ordinal()];
+		long counts[] = new long[h.buckets.length];
+		long count = 0;
+		for (int i = 0; i < counts.length; i++)
+			count += counts[i] = h.buckets[i].sum();
+		double max = h.max.get() / 1e6;
+		return new StageStatistics(stage.name(), count, h.nanos.sum() / 1e6,
+				Math.min(max, percentile(counts, count, 50)), Math.min(max,
+						percentile(counts, count, 99)), max, h.bytes.sum());
+	}
+
+	/**
+	 * Returns the figures of all stages.
+	 *
+	 * @return the figures of each stage
+	 */
+	public Map<Stage, StageStatistics> getAllStatistics() {
+		Map<Stage, StageStatistics> m = new EnumMap<>(Stage.class);
+		for (Stage s : STAGES)
+			m.put(s, getStatistics(s));
+		return m;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, StageStatistics> getStages() {
+		Map<String, StageStatistics> m = new LinkedHashMap<>();
+		for (Stage s : STAGES)
+			m.put(s.name(), getStatistics(s));
+		return m;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isRecording() {
+		return enabled;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRecording(boolean recording) {
+		setEnabled(recording);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() {
+		for (Histogram h : histograms) {
+			h.nanos.reset();
+			h.bytes.reset();
+			h.max.reset();
+			for (LongAdder b : h.buckets)
+				b.reset();
+		}
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding a percentile, in
+	 * milliseconds.
+	 */
+	private static double percentile(long counts[], long count, double p) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(p / 100 * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.scalb(1.0, i + 1) / 1e6;
+		}
+		return Math.scalb(1.0, counts.length) / 1e6;
+	}
+}
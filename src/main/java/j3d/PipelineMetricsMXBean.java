@@ -0,0 +1,38 @@
+package j3d;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link PipelineMetrics}.
+ *
+ * @author Yizhuan Yu
+ */
+public interface PipelineMetricsMXBean {
+
+	/**
+	 * Returns the figures of every stage, by stage name.
+	 *
+	 * @return the figures of each stage
+	 */
+	Map<String, StageStatistics> getStages();
+
+	/**
+	 * Checks whether stages are recorded.
+	 *
+	 * @return true if stages are recorded
+	 */
+	boolean isRecording();
+
+	/**
+	 * Sets whether stages are recorded.
+	 *
+	 * @param recording
+	 *            true to record stages
+	 */
+	void setRecording(boolean recording);
+
+	/**
+	 * Clears all figures.
+	 */
+	void reset();
+}
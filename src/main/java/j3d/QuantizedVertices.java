@@ -0,0 +1,157 @@
+package j3d;
+
+/**
+ * Vertices held in 16 bits per coordinate. Each axis of the boundary box is
+ * cut into 65536 steps, a coordinate being kept as the number of its step
+ * minus 32768, so that it fits a signed short. The error is at most half a
+ * step, one 131070th of the side of the box. The vertices never change once
+ * quantized and may be shared by several models.
+ *
+ * @author Yizhuan Yu
+ */
+class QuantizedVertices {
+
+	private static final int STEPS = 0xFFFF;
+
+	final short x[], y[], z[];
+
+	/**
+	 * Size of a step and coordinate of step 0 along each axis.
+	 */
+	final double stepX, stepY, stepZ, offX, offY, offZ;
+
+	/**
+	 * Quantizes vertices.
+	 *
+	 * @param vx
+	 *            x coordinates of the vertices
+	 * @param vy
+	 *            y coordinates of the vertices
+	 * @param vz
+	 *            z coordinates of the vertices
+	 * @param n
+	 *            number of vertices
+	 * @param m
+	 *            the model holding the vertices, with its boundaries found
+	 */
+	QuantizedVertices(float vx[], float vy[], float vz[], int n, ObjModel3D m) {
+		stepX = (m.xmax - m.xmin) / (double) STEPS;
+		stepY = (m.ymax - m.ymin) / (double) STEPS;
+		stepZ = (m.zmax - m.zmin) / (double) STEPS;
+		offX = m.xmin + 32768 * stepX;
+		offY = m.ymin + 32768 * stepY;
+		offZ = m.zmin + 32768 * stepZ;
+		x = quantize(vx, n, m.xmin, stepX);
+		y = quantize(vy, n, m.ymin, stepY);
+		z = quantize(vz, n, m.zmin, stepZ);
+	}
+
+	private QuantizedVertices(QuantizedVertices q, short x[], short y[],
+			short z[]) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		stepX = q.stepX;
+		stepY = q.stepY;
+		stepZ = q.stepZ;
+		offX = q.offX;
+		offY = q.offY;
+		offZ = q.offZ;
+	}
+
+	/**
+	 * Returns the vertices in another order.
+	 *
+	 * @param order
+	 *            the old index of each new vertex
+	 * @return the reordered vertices, with the same steps
+	 */
+	QuantizedVertices reorder(int order[]) {
+		int n = order.length;
+		short nx[] = new short[n], ny[] = new short[n], nz[] = new short[n];
+		for (int i = 0; i < n; i++) {
+			int k = order[i];
+			nx[i] = x[k];
+			ny[i] = y[k];
+			nz[i] = z[k];
+		}
+		return new QuantizedVertices(this, nx, ny, nz);
+	}
+
+	private static short[] quantize(float v[], int n, float min, double step) {
+		short q[] = new short[n];
+		double inv = step > 0 ? 1 / step : 0;
+		for (int i = 0; i < n; i++) {
+			long s = Math.round((v[i] - min) * inv);
+			q[i] = (short) (Math.max(0, Math.min(STEPS, s)) - 32768);
+		}
+		return q;
+	}
+
+	/**
+	 * Returns the x coordinate of a vertex.
+	 */
+	float getX(int i) {
+		return (float) (x[i] * stepX + offX);
+	}
+
+	/**
+	 * Returns the y coordinate of a vertex.
+	 */
+	float getY(int i) {
+		return (float) (y[i] * stepY + offY);
+	}
+
+	/**
+	 * Returns the z coordinate of a vertex.
+	 */
+	float getZ(int i) {
+		return (float) (z[i] * stepZ + offZ);
+	}
+
+	/**
+	 * Returns the coordinates along one axis as floats.
+	 */
+	private static float[] dequantize(short q[], double step, double off) {
+		float v[] = new float[q.length];
+		for (int i = 0; i < q.length; i++)
+			v[i] = (float) (q[i] * step + off);
+		return v;
+	}
+
+	float[] getX() {
+		return dequantize(x, stepX, offX);
+	}
+
+	float[] getY() {
+		return dequantize(y, stepY, offY);
+	}
+
+	float[] getZ() {
+		return dequantize(z, stepZ, offZ);
+	}
+
+	/**
+	 * Sets a matrix to a transformation applied after the dequantization,
+	 * so that the vertices are restored in the same pass that transforms
+	 * them.
+	 *
+	 * @param dst
+	 *            the result - the combined matrix
+	 * @param t
+	 *            the transformation of the restored vertices
+	 */
+	void getMatrix(Transformer3D dst, Transformer3D t) {
+		dst.reset();
+		dst.scale(stepX, stepY, stepZ);
+		dst.translate(offX, offY, offZ);
+		dst.mult(t);
+	}
+
+	/**
+	 * Returns the memory held by the coordinates.
+	 */
+	long getMemoryUsage() {
+		return 6L * x.length;
+	}
+}
@@ -0,0 +1,393 @@
+package j3d;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import j3d.PipelineMetrics.Stage;
+
+/**
+ * Draws 3D object into the pixels of a reusable image and shows it with a
+ * single image copy. The depth cue is the same as {@link Paint3D}; a depth
+ * buffer can be enabled so that nearer lines are never covered by farther
+ * ones.
+ * <p>
+ * Models with many connections are drawn on several threads: the image is
+ * split into tiles, every connection is put into the bins of the tiles it
+ * crosses, and each tile is drawn by one thread, in the order of the
+ * connections. The image is the same as when drawn on one thread.
+ *
+ * @author Yizhuan Yu
+ *
+ */
+public class RasterPaint3D {
+
+	private final FrameBuffer frame = new FrameBuffer();
+	private int background = 0xFFFFFF;
+	private boolean depthBuffer;
+
+	private ForkJoinPool pool;
+	private int parallelThreshold = 20000;
+	private int tileSize = 64;
+
+	/**
+	 * Tiles of the current frame: number of columns and rows, start of the
+	 * bin of each tile in {@link #binned} and the binned connections.
+	 */
+	private int cols, rows;
+	private int binStart[] = new int[0];
+	private int binned[] = new int[0];
+
+	/**
+	 * Bin counters, then bin positions, of each slice of connections.
+	 */
+	private int sliceBins[] = new int[0];
+
+	/**
+	 * Constructs a new object.
+	 */
+	public RasterPaint3D() {
+
+	}
+
+	/**
+	 * Sets the background color.
+	 *
+	 * @param c
+	 *            the background color
+	 */
+	public void setBackground(Color c) {
+		this.background = c.getRGB() & 0xFFFFFF;
+	}
+
+	/**
+	 * Sets whether a depth buffer is used.
+	 *
+	 * @param depthBuffer
+	 *            true to use a depth buffer
+	 */
+	public void setDepthBuffer(boolean depthBuffer) {
+		this.depthBuffer = depthBuffer;
+	}
+
+	/**
+	 * Checks whether a depth buffer is used.
+	 *
+	 * @return true if a depth buffer is used
+	 */
+	public boolean isDepthBuffer() {
+		return depthBuffer;
+	}
+
+	/**
+	 * Sets the pool drawing tiles.
+	 *
+	 * @param pool
+	 *            the pool, or null for the common pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the number of connections from which the image is drawn in tiles
+	 * on several threads.
+	 *
+	 * @param connections
+	 *            number of connections
+	 */
+	public void setParallelThreshold(int connections) {
+		this.parallelThreshold = connections;
+	}
+
+	/**
+	 * Sets the size of the tiles.
+	 *
+	 * @param tileSize
+	 *            width and height of a tile in pixels
+	 */
+	public void setTileSize(int tileSize) {
+		this.tileSize = Math.max(8, tileSize);
+	}
+
+	/**
+	 * Returns the frame buffer drawn into.
+	 *
+	 * @return the frame buffer
+	 */
+	public FrameBuffer getFrameBuffer() {
+		return frame;
+	}
+
+	/**
+	 * Draws a grey scale image of the model and copies it to the graphics
+	 * context.
+	 *
+	 * @param g
+	 *            the graphics context
+	 * @param model
+	 *            the model to draw
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 */
+	public void paint(Graphics g, ObjModel3D model, int width, int height) {
+		render(model, width, height);
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		g.drawImage(frame.getImage(), 0, 0, null);
+		PipelineMetrics.record(Stage.BLIT, start, alloc);
+	}
+
+	/**
+	 * Draws a grey scale image of the model into the frame buffer.
+	 *
+	 * @param model
+	 *            the model to draw
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 */
+	public void render(ObjModel3D model, int width, int height) {
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		try {
+			draw(model, width, height);
+		} finally {
+			PipelineMetrics.record(Stage.RASTERIZE, start, alloc);
+		}
+	}
+
+	private void draw(ObjModel3D model, int width, int height) {
+		frame.setSize(width, height);
+		frame.clear(background);
+		int depth[] = null;
+		if (depthBuffer) {
+			frame.clearDepth();
+			depth = frame.getDepth();
+		}
+		int lim = model.getNumberOfConnections();
+		if (lim <= 0 || model.getNumberOfVertices() <= 0)
+			return;
+		ForkJoinPool p = pool != null ? pool : ForkJoinPool.commonPool();
+		if (lim >= parallelThreshold && p.getParallelism() > 1) {
+			bin(p, model, lim);
+			p.invoke(new TileTask(model, depth, 0, cols * rows));
+		} else {
+			drawConnections(model, 0, lim, frame.getPixels(), depth,
+					frame.getWidth(), 0, 0, frame.getWidth(),
+					frame.getHeight());
+		}
+	}
+
+	/**
+	 * Puts the connections into the bins of the tiles they cross, keeping
+	 * their order in each bin. The connections are split into slices binned
+	 * in parallel; every slice counts its connections per tile, and the
+	 * counts give each slice its own place in every bin.
+	 */
+	private void bin(ForkJoinPool p, ObjModel3D model, int lim) {
+		int t = tileSize;
+		cols = (frame.getWidth() + t - 1) / t;
+		rows = (frame.getHeight() + t - 1) / t;
+		int ntiles = cols * rows;
+		int nslices = Math.max(1, Math.min(p.getParallelism() * 2, lim / 4096));
+		int step = (lim + nslices - 1) / nslices;
+		if (sliceBins.length < nslices * ntiles)
+			sliceBins = new int[nslices * ntiles];
+		Arrays.fill(sliceBins, 0, nslices * ntiles, 0);
+		int counts[] = sliceBins;
+		p.invoke(new BinTask(model, lim, step, 0, nslices, false));
+
+		if (binStart.length < ntiles + 1)
+			binStart = new int[ntiles + 1];
+		int sum = 0;
+		for (int k = 0; k < ntiles; k++) {
+			binStart[k] = sum;
+			for (int s = 0; s < nslices; s++) {
+				int c = counts[s * ntiles + k];
+				counts[s * ntiles + k] = sum;
+				sum += c;
+			}
+		}
+		binStart[ntiles] = sum;
+		if (binned.length < sum)
+			binned = new int[sum + (sum >> 3)];
+
+		p.invoke(new BinTask(model, lim, step, 0, nslices, true));
+	}
+
+	/**
+	 * Counts a connection in, or adds it to, the bins of the tiles it
+	 * crosses, using the bin counters or positions starting at base. Along
+	 * the major axis every column (or row) of tiles is visited, with the
+	 * tiles the line crosses there plus one pixel of margin.
+	 */
+	private void cover(ObjModel3D model, int i, int bins[], int base,
+			boolean fill) {
+		if (!model.isConnectionVisible(i))
+			return;
+		int p1 = model.getConnectionStart(i);
+		int p2 = model.getConnectionEnd(i);
+		float fx0 = model.getX()[p1], fy0 = model.getY()[p1];
+		float fx1 = model.getX()[p2], fy1 = model.getY()[p2];
+		float lim = 1 << 24;
+		if (!(Math.abs(fx0) < lim && Math.abs(fy0) < lim
+				&& Math.abs(fx1) < lim && Math.abs(fy1) < lim))
+			return;
+		int x0 = (int) fx0, y0 = (int) fy0, x1 = (int) fx1, y1 = (int) fy1;
+		int w = frame.getWidth(), h = frame.getHeight();
+		if ((x0 < 0 && x1 < 0) || (x0 >= w && x1 >= w) || (y0 < 0 && y1 < 0)
+				|| (y0 >= h && y1 >= h))
+			return;
+		int t = tileSize;
+		if (x0 >= 0 && y0 >= 0 && x1 >= 0 && y1 >= 0 && x0 / t == x1 / t
+				&& y0 / t == y1 / t && x0 < w && x1 < w && y0 < h && y1 < h) {
+			// within one tile, the common case on dense meshes
+			int tile = base + (y0 / t) * cols + x0 / t;
+			if (fill)
+				binned[bins[tile]++] = i;
+			else
+				bins[tile]++;
+			return;
+		}
+		int dx = x1 - x0, dy = y1 - y0;
+		boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+		int ma0 = xMajor ? x0 : y0, ma1 = xMajor ? x1 : y1;
+		int mi0 = xMajor ? y0 : x0;
+		int dma = xMajor ? dx : dy, dmi = xMajor ? dy : dx;
+		int majTiles = xMajor ? cols : rows, minTiles = xMajor ? rows : cols;
+		int lo = Math.min(ma0, ma1), hi = Math.max(ma0, ma1);
+		int first = Math.max(0, lo / t), last = Math.min(majTiles - 1, hi / t);
+		for (int a = first; a <= last; a++) {
+			int s = Math.max(lo, a * t), e = Math.min(hi, a * t + t - 1);
+			float m0 = mi0, m1 = mi0;
+			if (dma != 0) {
+				m0 = mi0 + (float) (s - ma0) * dmi / dma;
+				m1 = mi0 + (float) (e - ma0) * dmi / dma;
+			}
+			int b0 = (int) Math.floor((Math.min(m0, m1) - 1) / t);
+			int b1 = (int) Math.floor((Math.max(m0, m1) + 1) / t);
+			b0 = Math.max(0, b0);
+			b1 = Math.min(minTiles - 1, b1);
+			for (int b = b0; b <= b1; b++) {
+				int tile = base + (xMajor ? b * cols + a : a * cols + b);
+				if (fill)
+					binned[bins[tile]++] = i;
+				else
+					bins[tile]++;
+			}
+		}
+	}
+
+	/**
+	 * Bins a range of slices of connections, splitting it while it holds
+	 * more than one.
+	 */
+	private class BinTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 6164734523072467151L;
+
+		private final ObjModel3D model;
+		private final int lim, step;
+		private final int from, to;
+		private final boolean fill;
+
+		BinTask(ObjModel3D model, int lim, int step, int from, int to,
+				boolean fill) {
+			this.model = model;
+			this.lim = lim;
+			this.step = step;
+			this.from = from;
+			this.to = to;
+			this.fill = fill;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BinTask(model, lim, step, from, mid, fill),
+						new BinTask(model, lim, step, mid, to, fill));
+				return;
+			}
+			int base = from * cols * rows;
+			int end = Math.min(lim, (from + 1) * step);
+			for (int i = from * step; i < end; i++)
+				cover(model, i, sliceBins, base, fill);
+		}
+	}
+
+	/**
+	 * Draws a range of tiles, splitting it while it holds more than one.
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -3502617094416735416L;
+
+		private final ObjModel3D model;
+		private final int depth[];
+		private final int from, to;
+
+		TileTask(ObjModel3D model, int depth[], int from, int to) {
+			this.model = model;
+			this.depth = depth;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TileTask(model, depth, from, mid), new TileTask(
+						model, depth, mid, to));
+				return;
+			}
+			int tile = from;
+			int t = tileSize;
+			int cx0 = (tile % cols) * t, cy0 = (tile / cols) * t;
+			int cx1 = Math.min(cx0 + t, frame.getWidth());
+			int cy1 = Math.min(cy0 + t, frame.getHeight());
+			int pixels[] = frame.getPixels();
+			int stride = frame.getWidth();
+			float x[] = model.getX();
+			float y[] = model.getY();
+			float z[] = model.getZ();
+			int grey[] = Paint3D.GREY;
+			for (int k = binStart[tile]; k < binStart[tile + 1]; k++) {
+				int i = binned[k];
+				int p1 = model.getConnectionStart(i);
+				int p2 = model.getConnectionEnd(i);
+				float z1 = z[p1], z2 = z[p2];
+				LineRasterizer.drawLine(pixels, depth, stride, cx0, cy0, cx1,
+						cy1, x[p1], y[p1], z1, x[p2], y[p2], z2,
+						grey[Paint3D.greyLevel(z1, z2)]);
+			}
+		}
+	}
+
+	/**
+	 * Draws a range of connections clipped to a rectangle.
+	 */
+	static void drawConnections(ObjModel3D model, int from, int to,
+			int pixels[], int depth[], int stride, int cx0, int cy0, int cx1,
+			int cy1) {
+		float x[] = model.getX();
+		float y[] = model.getY();
+		float z[] = model.getZ();
+		int grey[] = Paint3D.GREY;
+		for (int i = from; i < to; i++) {
+			if (!model.isConnectionVisible(i))
+				continue;
+			int p1 = model.getConnectionStart(i);
+			int p2 = model.getConnectionEnd(i);
+			float z1 = z[p1], z2 = z[p2];
+			LineRasterizer.drawLine(pixels, depth, stride, cx0, cy0, cx1, cy1,
+					x[p1], y[p1], z1, x[p2], y[p2], z2,
+					grey[Paint3D.greyLevel(z1, z2)]);
+		}
+	}
+}
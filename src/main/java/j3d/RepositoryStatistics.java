@@ -0,0 +1,162 @@
+package j3d;
+
+/**
+ * Figures of a {@link ModelRepository}.
+ *
+ * @author Yizhuan Yu
+ */
+public final class RepositoryStatistics {
+
+	private final long hits, misses, evictions, loads, failures;
+	private final double totalLoadMillis, maxLoadMillis;
+	private final int models;
+	private final long bytes;
+
+	/**
+	 * Constructs the figures.
+	 *
+	 * @param hits
+	 *            requests served by a model loaded or loading
+	 * @param misses
+	 *            requests that started a load
+	 * @param evictions
+	 *            models dropped to stay within the memory limit
+	 * @param loads
+	 *            models loaded
+	 * @param failures
+	 *            loads that failed
+	 * @param totalLoadMillis
+	 *            time spent in all loads
+	 * @param maxLoadMillis
+	 *            longest load
+	 * @param models
+	 *            models held
+	 * @param bytes
+	 *            memory held by the models
+	 */
+	public RepositoryStatistics(long hits, long misses, long evictions,
+			long loads, long failures, double totalLoadMillis,
+			double maxLoadMillis, int models, long bytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.loads = loads;
+		this.failures = failures;
+		this.totalLoadMillis = totalLoadMillis;
+		this.maxLoadMillis = maxLoadMillis;
+		this.models = models;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Returns the number of requests served by a model loaded or loading.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that started a load.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the share of requests served without a new load.
+	 *
+	 * @return hits over requests, 0 before the first request
+	 */
+	public double getHitRatio() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	/**
+	 * Returns the number of models dropped to stay within the memory limit.
+	 *
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of models loaded.
+	 *
+	 * @return number of loads
+	 */
+	public long getLoads() {
+		return loads;
+	}
+
+	/**
+	 * Returns the number of loads that failed.
+	 *
+	 * @return number of failures
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns the time spent in all loads, failed or not.
+	 *
+	 * @return time in milliseconds
+	 */
+	public double getTotalLoadMillis() {
+		return totalLoadMillis;
+	}
+
+	/**
+	 * Returns the mean duration of a load.
+	 *
+	 * @return duration in milliseconds, 0 before the first load
+	 */
+	public double getMeanLoadMillis() {
+		long n = loads + failures;
+		return n == 0 ? 0 : totalLoadMillis / n;
+	}
+
+	/**
+	 * Returns the longest load.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public double getMaxLoadMillis() {
+		return maxLoadMillis;
+	}
+
+	/**
+	 * Returns the number of models held, loaded or loading.
+	 *
+	 * @return number of models
+	 */
+	public int getModels() {
+		return models;
+	}
+
+	/**
+	 * Returns the memory held by the loaded models.
+	 *
+	 * @return size in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"%d hits, %d misses, %d evictions, %d loads (mean %.1f ms, max %.1f ms), %d failures, %d models, %d bytes",
+				hits, misses, evictions, loads, getMeanLoadMillis(),
+				maxLoadMillis, failures, models, bytes);
+	}
+}
@@ -0,0 +1,297 @@
+package j3d;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+import j3d.PipelineMetrics.Stage;
+
+/**
+ * Draws the faces of a 3D object as flat shaded solids into the pixels of a
+ * reusable image, and shows it with a single image copy. Faces are split
+ * into triangles around their first point and filled scanline by scanline
+ * with a depth buffer; every face gets one shade from the angle between its
+ * normal and the light. Connections are not drawn, so a model without faces
+ * shows only the background.
+ *
+ * @author Yizhuan Yu
+ *
+ */
+public class SolidPaint3D {
+
+	/**
+	 * Coordinates beyond this are not drawn.
+	 */
+	private static final float LIMIT = 1 << 24;
+
+	private final FrameBuffer frame = new FrameBuffer();
+	private int background = 0xFFFFFF;
+	private int color = 0xC0C0C0;
+	private float ambient = 0.2f;
+	private double lightX, lightY, lightZ;
+
+	/**
+	 * Scale of the last transformation along each axis.
+	 */
+	private final double scale[] = new double[3];
+
+	/**
+	 * Constructs a new object, lit from the upper left front.
+	 */
+	public SolidPaint3D() {
+		setLight(-1, -1, 2);
+	}
+
+	/**
+	 * Sets the background color.
+	 *
+	 * @param c
+	 *            the background color
+	 */
+	public void setBackground(Color c) {
+		this.background = c.getRGB() & 0xFFFFFF;
+	}
+
+	/**
+	 * Sets the color of faces facing the light.
+	 *
+	 * @param c
+	 *            the color
+	 */
+	public void setColor(Color c) {
+		this.color = c.getRGB() & 0xFFFFFF;
+	}
+
+	/**
+	 * Sets the part of the color faces get whatever the light.
+	 *
+	 * @param ambient
+	 *            ambient light, between 0 and 1
+	 */
+	public void setAmbient(float ambient) {
+		this.ambient = Math.max(0, Math.min(1, ambient));
+	}
+
+	/**
+	 * Sets the direction to the light, in screen coordinates: x to the
+	 * right, y down and z to the viewer. Both sides of a face are lit.
+	 *
+	 * @param x
+	 *            x of the direction
+	 * @param y
+	 *            y of the direction
+	 * @param z
+	 *            z of the direction
+	 */
+	public void setLight(double x, double y, double z) {
+		double l = Math.sqrt(x * x + y * y + z * z);
+		if (l == 0)
+			throw new IllegalArgumentException("no light direction");
+		lightX = x / l;
+		lightY = y / l;
+		lightZ = z / l;
+	}
+
+	/**
+	 * Returns the frame buffer drawn into.
+	 *
+	 * @return the frame buffer
+	 */
+	public FrameBuffer getFrameBuffer() {
+		return frame;
+	}
+
+	/**
+	 * Draws the model and copies the image to the graphics context.
+	 *
+	 * @param g
+	 *            the graphics context
+	 * @param model
+	 *            the model to draw, transformed
+	 * @param t
+	 *            the transformation the model was transformed with
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 */
+	public void paint(Graphics g, ObjModel3D model, Transformer3D t,
+			int width, int height) {
+		render(model, t, width, height);
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		g.drawImage(frame.getImage(), 0, 0, null);
+		PipelineMetrics.record(Stage.BLIT, start, alloc);
+	}
+
+	/**
+	 * Draws the model into the frame buffer.
+	 *
+	 * @param model
+	 *            the model to draw, transformed
+	 * @param t
+	 *            the transformation the model was transformed with, giving
+	 *            the scale of the screen coordinates
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 */
+	public void render(ObjModel3D model, Transformer3D t, int width,
+			int height) {
+		long start = System.nanoTime(), alloc = PipelineMetrics.allocated();
+		try {
+			draw(model, t, width, height);
+		} finally {
+			PipelineMetrics.record(Stage.RASTERIZE, start, alloc);
+		}
+	}
+
+	private void draw(ObjModel3D model, Transformer3D t, int width,
+			int height) {
+		frame.setSize(width, height);
+		frame.clear(background);
+		frame.clearDepth();
+		int nface = model.getNumberOfFaces();
+		if (nface == 0 || model.getNumberOfVertices() <= 0)
+			return;
+		t.getScale(scale);
+		int pixels[] = frame.getPixels();
+		int depth[] = frame.getDepth();
+		int w = frame.getWidth(), h = frame.getHeight();
+		float x[] = model.getX();
+		float y[] = model.getY();
+		float z[] = model.getZ();
+		int fs[] = model.getFaceStarts();
+		int fi[] = model.getFaceIndices();
+		for (int f = 0; f < nface; f++) {
+			int s = fs[f], e = fs[f + 1];
+			int rgb = shade(x, y, z, fi, s, e);
+			int a = fi[s];
+			for (int k = s + 1; k < e - 1; k++) {
+				int b = fi[k], c = fi[k + 1];
+				fillTriangle(pixels, depth, w, h, x[a], y[a], z[a], x[b],
+						y[b], z[b], x[c], y[c], z[c], rgb);
+			}
+		}
+	}
+
+	/**
+	 * Returns the color of a face. The normal is found in screen
+	 * coordinates with Newell's method, which also suits faces that are not
+	 * quite flat, and is then scaled back to the proportions of the model.
+	 */
+	private int shade(float x[], float y[], float z[], int fi[], int s, int e) {
+		double nx = 0, ny = 0, nz = 0;
+		int prev = fi[e - 1];
+		for (int k = s; k < e; k++) {
+			int cur = fi[k];
+			nx += ((double) y[prev] - y[cur]) * ((double) z[prev] + z[cur]);
+			ny += ((double) z[prev] - z[cur]) * ((double) x[prev] + x[cur]);
+			nz += ((double) x[prev] - x[cur]) * ((double) y[prev] + y[cur]);
+			prev = cur;
+		}
+		// scaling by (sx, sy, sz) scales normals by (sy sz, sx sz, sx sy), so
+		// scaling again by (sx, sy, sz) restores their direction
+		nx *= scale[0];
+		ny *= scale[1];
+		nz *= scale[2];
+		double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		double d = l == 0 ? 0 : Math.abs(nx * lightX + ny * lightY + nz
+				* lightZ)
+				/ l;
+		double i = ambient + (1 - ambient) * d;
+		int r = (int) (((color >> 16) & 0xFF) * i);
+		int g = (int) (((color >> 8) & 0xFF) * i);
+		int b = (int) ((color & 0xFF) * i);
+		return (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Fills a triangle. A pixel is filled when its center is inside the
+	 * triangle, or on its left or top edge, so triangles sharing an edge
+	 * never both fill a pixel. Depth is kept like
+	 * {@link LineRasterizer}: 16.16 fixed point, nearer is greater.
+	 */
+	static void fillTriangle(int pixels[], int depth[], int w, int h,
+			float x0, float y0, float z0, float x1, float y1, float z1,
+			float x2, float y2, float z2, int rgb) {
+		if (!(Math.abs(x0) < LIMIT && Math.abs(y0) < LIMIT
+				&& Math.abs(x1) < LIMIT && Math.abs(y1) < LIMIT
+				&& Math.abs(x2) < LIMIT && Math.abs(y2) < LIMIT))
+			return;
+		float t;
+		// sort by y
+		if (y1 < y0) {
+			t = x0;
+			x0 = x1;
+			x1 = t;
+			t = y0;
+			y0 = y1;
+			y1 = t;
+			t = z0;
+			z0 = z1;
+			z1 = t;
+		}
+		if (y2 < y1) {
+			t = x1;
+			x1 = x2;
+			x2 = t;
+			t = y1;
+			y1 = y2;
+			y2 = t;
+			t = z1;
+			z1 = z2;
+			z2 = t;
+			if (y1 < y0) {
+				t = x0;
+				x0 = x1;
+				x1 = t;
+				t = y0;
+				y0 = y1;
+				y1 = t;
+				t = z0;
+				z0 = z1;
+				z1 = t;
+			}
+		}
+		int top = Math.max(0, (int) Math.ceil(y0 - 0.5f));
+		int bottom = Math.min(h, (int) Math.ceil(y2 - 0.5f));
+		if (top >= bottom)
+			return;
+		double area = ((double) x1 - x0) * ((double) y2 - y0)
+				- ((double) x2 - x0) * ((double) y1 - y0);
+		if (area == 0)
+			return;
+		// depth plane
+		double dzdx = (((double) z1 - z0) * ((double) y2 - y0) - ((double) z2 - z0)
+				* ((double) y1 - y0))
+				/ area;
+		double dzdy = (((double) x1 - x0) * ((double) z2 - z0) - ((double) x2 - x0)
+				* ((double) z1 - z0))
+				/ area;
+		double slope02 = ((double) x2 - x0) / ((double) y2 - y0);
+		double slope01 = y1 > y0 ? ((double) x1 - x0) / ((double) y1 - y0) : 0;
+		double slope12 = y2 > y1 ? ((double) x2 - x1) / ((double) y2 - y1) : 0;
+		int zStep = (int) (dzdx * 65536);
+		for (int py = top; py < bottom; py++) {
+			double yc = py + 0.5;
+			double xa = x0 + (yc - y0) * slope02;
+			double xb = yc < y1 ? x0 + (yc - y0) * slope01 : x1 + (yc - y1)
+					* slope12;
+			double xl = Math.min(xa, xb), xr = Math.max(xa, xb);
+			int left = Math.max(0, (int) Math.ceil(xl - 0.5));
+			int right = Math.min(w, (int) Math.ceil(xr - 0.5));
+			if (left >= right)
+				continue;
+			double zl = z0 + (left + 0.5 - x0) * dzdx + (yc - y0) * dzdy;
+			int zi = (int) (zl * 65536);
+			int row = py * w;
+			for (int px = left; px < right; px++, zi += zStep) {
+				int k = row + px;
+				if (zi > depth[k]) {
+					depth[k] = zi;
+					pixels[k] = rgb;
+				}
+			}
+		}
+	}
+}
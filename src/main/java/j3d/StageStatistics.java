@@ -0,0 +1,134 @@
+package j3d;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Figures of one stage of the pipeline, as recorded by
+ * {@link PipelineMetrics}.
+ *
+ * @author Yizhuan Yu
+ */
+public final class StageStatistics {
+
+	private final String stage;
+	private final long count;
+	private final double totalMillis, p50Millis, p99Millis, maxMillis;
+	private final long allocatedBytes;
+
+	/**
+	 * Constructs the figures.
+	 *
+	 * @param stage
+	 *            name of the stage
+	 * @param count
+	 *            number of runs
+	 * @param totalMillis
+	 *            time spent in all runs
+	 * @param p50Millis
+	 *            median duration
+	 * @param p99Millis
+	 *            99th percentile of the duration
+	 * @param maxMillis
+	 *            longest duration
+	 * @param allocatedBytes
+	 *            bytes allocated in all runs
+	 */
+	@ConstructorProperties({ "stage", "count", "totalMillis", "p50Millis",
+			"p99Millis", "maxMillis", "allocatedBytes" })
+	public StageStatistics(String stage, long count, double totalMillis,
+			double p50Millis, double p99Millis, double maxMillis,
+			long allocatedBytes) {
+		this.stage = stage;
+		this.count = count;
+		this.totalMillis = totalMillis;
+		this.p50Millis = p50Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * Returns the name of the stage.
+	 *
+	 * @return name of the stage
+	 */
+	public String getStage() {
+		return stage;
+	}
+
+	/**
+	 * Returns the number of runs.
+	 *
+	 * @return number of runs
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the time spent in all runs.
+	 *
+	 * @return time in milliseconds
+	 */
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+
+	/**
+	 * Returns the mean duration.
+	 *
+	 * @return duration in milliseconds, 0 if the stage did not run
+	 */
+	public double getMeanMillis() {
+		return count == 0 ? 0 : totalMillis / count;
+	}
+
+	/**
+	 * Returns the median duration, rounded up to a power of two
+	 * nanoseconds.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	/**
+	 * Returns the 99th percentile of the duration, rounded up to a power of
+	 * two nanoseconds.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	/**
+	 * Returns the longest duration.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	/**
+	 * Returns the bytes allocated in all runs.
+	 *
+	 * @return allocated bytes, 0 if not measured
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"%s: %d runs, %.3f ms total, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d bytes",
+				stage, count, totalMillis, getMeanMillis(), p50Millis,
+				p99Millis, maxMillis, allocatedBytes);
+	}
+}
@@ -3,6 +3,16 @@ package j3d;
 /**
  * 3D transformer. It can be used to move, scale and rotate a 3D object. It can rotate an object around
  * X axis, Y axis, Z axis and around a vector p1 -> p2.
+ * <p>
+ * The matrix is held in a flat row-major array and every operation is
+ * applied to it in place, so composing and applying transformations does not
+ * allocate.
+ * <p>
+ * Packed coordinates are transformed in double precision, except when the
+ * Vector API is used (see {@link #isVectorized()}): the matrix is then
+ * rounded to float and the vertices computed in float with fused
+ * multiply-adds, which differs from the double loop by a few units in the
+ * last place of the largest term.
  *
  * @author Yizhuan Yu
  *
@@ -10,16 +20,22 @@ package j3d;
 public class Transformer3D {
 
 	private static final double pi = 3.14159265f;
-	private double[][] m4x4 = new double[4][4];
+
+	/**
+	 * Is {@link VectorTransform} used for packed coordinates?
+	 */
+	private static final boolean VECTORIZED = detectVectorSupport();
+
+	/**
+	 * The 4x4 matrix, row-major: element (r, c) is at r * 4 + c.
+	 */
+	private final double[] m = new double[16];
 
 	/**
 	 * Constructs a new transformer.
 	 */
 	public Transformer3D() {
-		int r = 0, c = 0;
-		for (r = 0; r < 4; r++)
-			for (c = 0; c < 4; c++)
-				m4x4[r][c] = (r == c ? 1 : 0);
+		reset();
 	}
 
 	/**
@@ -27,20 +43,9 @@ public class Transformer3D {
 	 *
 	 */
 	public void reset() {
-		reset(m4x4);
-	}
-
-	/**
-	 * Resets the transformer matrix with the matrix provided.
-	 *
-	 * @param m
-	 *            the transformer matrix
-	 */
-	private void reset(double[][] m) {
-		int r = 0, c = 0;
-		for (r = 0; r < 4; r++)
-			for (c = 0; c < 4; c++)
-				m[r][c] = (r == c ? 1 : 0);
+		for (int i = 0; i < 16; i++)
+			m[i] = 0;
+		m[0] = m[5] = m[10] = m[15] = 1;
 	}
 
 	/**
@@ -50,38 +55,41 @@ public class Transformer3D {
 	 *            the transformer
 	 */
 	public void mult(Transformer3D t) {
-		double[][] tmp = new double[4][4];
-		int r = 0, c = 0;
-
-		for (r = 0; r < 4; r++)
-			for (c = 0; c < 4; c++)
-				tmp[r][c] = t.m4x4[r][0] * m4x4[0][c] + t.m4x4[r][1]
-						* m4x4[1][c] + t.m4x4[r][2] * m4x4[2][c] + t.m4x4[r][3]
-						* m4x4[3][c];
-		for (r = 0; r < 4; r++)
-			for (c = 0; c < 4; c++)
-				m4x4[r][c] = tmp[r][c];
+		mult(t.m);
 	}
 
 	/**
-	 * Transforms with the provided transformer.
+	 * Transforms by multiplying the provided matrix.
 	 *
-	 * @param t
-	 *            the transformer
+	 * @param a
+	 *            the matrix - 16 elements, row-major
 	 */
-	private void mult(double[][] t) {
-		double[][] tmp = new double[4][4];
-		int r = 0, c = 0;
+	void mult(double a[]) {
+		double a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3];
+		double a10 = a[4], a11 = a[5], a12 = a[6], a13 = a[7];
+		double a20 = a[8], a21 = a[9], a22 = a[10], a23 = a[11];
+		double a30 = a[12], a31 = a[13], a32 = a[14], a33 = a[15];
+		for (int c = 0; c < 4; c++) {
+			double r0 = m[c], r1 = m[4 + c], r2 = m[8 + c], r3 = m[12 + c];
+			m[c] = a00 * r0 + a01 * r1 + a02 * r2 + a03 * r3;
+			m[4 + c] = a10 * r0 + a11 * r1 + a12 * r2 + a13 * r3;
+			m[8 + c] = a20 * r0 + a21 * r1 + a22 * r2 + a23 * r3;
+			m[12 + c] = a30 * r0 + a31 * r1 + a32 * r2 + a33 * r3;
+		}
+	}
 
-		for (r = 0; r < 4; r++) {
-			for (c = 0; c < 4; c++) {
-				tmp[r][c] = t[r][0] * m4x4[0][c] + t[r][1] * m4x4[1][c]
-						+ t[r][2] * m4x4[2][c] + t[r][3] * m4x4[3][c];
-			}
+	/**
+	 * Transforms with the provided 3x3 linear part, leaving the translation
+	 * row untouched.
+	 */
+	private void mult3(double a00, double a01, double a02, double a10,
+			double a11, double a12, double a20, double a21, double a22) {
+		for (int c = 0; c < 4; c++) {
+			double r0 = m[c], r1 = m[4 + c], r2 = m[8 + c];
+			m[c] = a00 * r0 + a01 * r1 + a02 * r2;
+			m[4 + c] = a10 * r0 + a11 * r1 + a12 * r2;
+			m[8 + c] = a20 * r0 + a21 * r1 + a22 * r2;
 		}
-		for (r = 0; r < 4; r++)
-			for (c = 0; c < 4; c++)
-				m4x4[r][c] = tmp[r][c];
 	}
 
 	/**
@@ -92,12 +100,12 @@ public class Transformer3D {
 	 * @param tz z distance
 	 */
 	public void translate(double tx, double ty, double tz) {
-		double[][] m = new double[4][4];
-		reset(m);
-		m[0][3] = tx;
-		m[1][3] = ty;
-		m[2][3] = tz;
-		mult(m);
+		for (int c = 0; c < 4; c++) {
+			double r3 = m[12 + c];
+			m[c] += tx * r3;
+			m[4 + c] += ty * r3;
+			m[8 + c] += tz * r3;
+		}
 	}
 
 	/**
@@ -113,15 +121,9 @@ public class Transformer3D {
 	 *            the base center
 	 */
 	public void scale(double sx, double sy, double sz, Point3D center) {
-		double[][] m = new double[4][4];
-		reset(m);
-		m[0][0] = sx;
-		m[0][3] = (1 - sx) * center.x;
-		m[1][1] = sy;
-		m[1][3] = (1 - sy) * center.y;
-		m[2][2] = sz;
-		m[2][3] = (1 - sz) * center.z;
-		mult(m);
+		scale(sx, sy, sz);
+		translate((1 - sx) * center.x, (1 - sy) * center.y, (1 - sz)
+				* center.z);
 	}
 
 	/**
@@ -135,12 +137,11 @@ public class Transformer3D {
 	 *            z scale
 	 */
 	public void scale(double sx, double sy, double sz) {
-		double[][] m = new double[4][4];
-		reset(m);
-		m[0][0] = sx;
-		m[1][1] = sy;
-		m[2][2] = sz;
-		mult(m);
+		for (int c = 0; c < 4; c++) {
+			m[c] *= sx;
+			m[4 + c] *= sy;
+			m[8 + c] *= sz;
+		}
 	}
 
 	/**
@@ -151,15 +152,13 @@ public class Transformer3D {
 	 */
 	public void rotX(double angle) {
 		double radianAngle = angle * (pi / 180);
-		double sinA = (double) Math.sin(radianAngle);
-		double cosA = (double) Math.cos(radianAngle);
-		double[][] m = new double[4][4];
-		reset(m);
-		m[1][1] = cosA;
-		m[1][2] = -sinA;
-		m[2][2] = cosA;
-		m[2][1] = sinA;
-		mult(m);
+		double sinA = Math.sin(radianAngle);
+		double cosA = Math.cos(radianAngle);
+		for (int c = 0; c < 4; c++) {
+			double r1 = m[4 + c], r2 = m[8 + c];
+			m[4 + c] = cosA * r1 - sinA * r2;
+			m[8 + c] = sinA * r1 + cosA * r2;
+		}
 	}
 
 	/**
@@ -170,15 +169,13 @@ public class Transformer3D {
 	 */
 	public void rotY(double angle) {
 		double radianAngle = angle * (pi / 180);
-		double sinA = (double) Math.sin(radianAngle);
-		double cosA = (double) Math.cos(radianAngle);
-		double[][] m = new double[4][4];
-		reset(m);
-		m[0][0] = cosA;
-		m[2][0] = -sinA;
-		m[2][2] = cosA;
-		m[0][2] = sinA;
-		mult(m);
+		double sinA = Math.sin(radianAngle);
+		double cosA = Math.cos(radianAngle);
+		for (int c = 0; c < 4; c++) {
+			double r0 = m[c], r2 = m[8 + c];
+			m[c] = cosA * r0 + sinA * r2;
+			m[8 + c] = -sinA * r0 + cosA * r2;
+		}
 	}
 
 	/**
@@ -189,15 +186,13 @@ public class Transformer3D {
 	 */
 	public void rotZ(double angle) {
 		double radianAngle = angle * (pi / 180);
-		double sinA = (double) Math.sin(radianAngle);
-		double cosA = (double) Math.cos(radianAngle);
-		double[][] m = new double[4][4];
-		reset(m);
-		m[0][0] = cosA;
-		m[0][1] = -sinA;
-		m[1][1] = cosA;
-		m[1][0] = sinA;
-		mult(m);
+		double sinA = Math.sin(radianAngle);
+		double cosA = Math.cos(radianAngle);
+		for (int c = 0; c < 4; c++) {
+			double r0 = m[c], r1 = m[4 + c];
+			m[c] = cosA * r0 - sinA * r1;
+			m[4 + c] = sinA * r0 + cosA * r1;
+		}
 	}
 
 	/**
@@ -212,33 +207,116 @@ public class Transformer3D {
 	 */
 	public void rotate(Point3D p1, Point3D p2, double angle) {
 		double radianAngle = angle * (pi / 180.0f);
-		double length = (double) Math
+		double length = Math
 				.sqrt((p2.x - p1.x) * (p2.x - p1.x) + (p2.y - p1.y)
 						* (p2.y - p1.y) + (p2.z - p1.z) * (p2.z - p1.z));
-		double cosA2 = (double) Math.cos(radianAngle / 2.0f);
-		double sinA2 = (double) Math.sin(radianAngle / 2.0f);
+		double cosA2 = Math.cos(radianAngle / 2.0f);
+		double sinA2 = Math.sin(radianAngle / 2.0f);
 		double a = sinA2 * (p2.x - p1.x) / length;
 		double b = sinA2 * (p2.y - p1.y) / length;
 		double c = sinA2 * (p2.z - p1.z) / length;
-		double[][] m = new double[4][4];
 
 		translate(-p1.x, -p1.y, -p1.z);
-		reset(m);
-		m[0][0] = 1.0f - 2 * b * b - 2 * c * c;
-		m[0][1] = 2 * a * b - 2 * cosA2 * c;
-		m[0][2] = 2 * a * c + 2 * cosA2 * b;
-		m[1][0] = 2 * a * b + 2 * cosA2 * c;
-		m[1][1] = 1.0f - 2 * a * a - 2 * c * c;
-		m[1][2] = 2 * b * c - 2 * cosA2 * a;
-		m[2][0] = 2 * a * c - 2 * cosA2 * b;
-		m[2][1] = 2 * b * c + 2 * cosA2 * a;
-		m[2][2] = 1.0f - 2 * a * a - 2 * b * b;
-		mult(m);
+		mult3(1.0f - 2 * b * b - 2 * c * c, 2 * a * b - 2 * cosA2 * c, 2 * a
+				* c + 2 * cosA2 * b, 2 * a * b + 2 * cosA2 * c, 1.0f - 2 * a
+				* a - 2 * c * c, 2 * b * c - 2 * cosA2 * a, 2 * a * c - 2
+				* cosA2 * b, 2 * b * c + 2 * cosA2 * a, 1.0f - 2 * a * a - 2
+				* b * b);
 		translate(p1.x, p1.y, p1.z);
 	}
 
 	/**
-	 * Transforms vertices.
+	 * Sets up the view of a model on screen: the model is centered, turned
+	 * by a rotation, scaled so that its longest side covers a part of the
+	 * smaller side of the screen, with y pointing down, and moved to the
+	 * center of the screen. The depth is scaled to the range of the depth
+	 * cue. The boundaries of the model must have been found.
+	 *
+	 * @param model
+	 *            the model
+	 * @param rotation
+	 *            the rotation, or null for none
+	 * @param width
+	 *            width of the screen
+	 * @param height
+	 *            height of the screen
+	 * @param fill
+	 *            part of the screen covered, 1 for all of it
+	 * @return the scale from model to screen coordinates
+	 */
+	public double fit(ObjModel3D model, Transformer3D rotation, int width,
+			int height, double fill) {
+		return fit(model, rotation == null ? null : rotation.m, width, height,
+				fill, 0, 0);
+	}
+
+	/**
+	 * Sets up the view of a model on screen as seen from a view state: the
+	 * model is turned by the rotation of the view, zoomed and panned. See
+	 * {@link #fit(ObjModel3D, Transformer3D, int, int, double)}.
+	 *
+	 * @param model
+	 *            the model
+	 * @param view
+	 *            the view
+	 * @param width
+	 *            width of the screen
+	 * @param height
+	 *            height of the screen
+	 * @param fill
+	 *            part of the screen covered at zoom 1
+	 * @return the scale from model to screen coordinates
+	 */
+	public double fit(ObjModel3D model, ViewState view, int width,
+			int height, double fill) {
+		return fit(model, view.rotation(), width, height,
+				fill * view.getZoom(), view.getPanX(), view.getPanY());
+	}
+
+	private double fit(ObjModel3D model, double rotation[], int width,
+			int height, double fill, double panX, double panY) {
+		float size = Math.max(model.xmax - model.xmin, Math.max(model.ymax
+				- model.ymin, model.zmax - model.zmin));
+		double f = size > 0 ? fill * Math.min(width, height) / size : 1;
+		reset();
+		translate(-(model.xmin + model.xmax) / 2,
+				-(model.ymin + model.ymax) / 2, -(model.zmin + model.zmax) / 2);
+		if (rotation != null)
+			mult(rotation);
+		scale(f, -f, 16 * f / width);
+		translate(width / 2 + panX, height / 2 + panY, 8);
+		return f;
+	}
+
+	/**
+	 * Returns the matrix.
+	 *
+	 * @param dst
+	 *            the result - 16 elements, row-major: element (r, c) at
+	 *            r * 4 + c
+	 */
+	public void getMatrix(double dst[]) {
+		System.arraycopy(m, 0, dst, 0, 16);
+	}
+
+	/**
+	 * Returns the scale along each axis, the lengths of the rows of the
+	 * linear part. When the transformation rotates and then scales, they
+	 * are the scale factors, whatever the rotation.
+	 *
+	 * @param s
+	 *            the result - scale along x, y and z
+	 */
+	public void getScale(double s[]) {
+		for (int r = 0; r < 3; r++) {
+			double a = m[4 * r], b = m[4 * r + 1], c = m[4 * r + 2];
+			s[r] = Math.sqrt(a * a + b * b + c * c);
+		}
+	}
+
+	/**
+	 * Transforms vertices. Points already present in {@code tv} are updated
+	 * in place, missing ones are created.
 	 *
 	 * @param v
 	 *            the vertices to be transformed
@@ -248,16 +326,145 @@ public class Transformer3D {
 	 *            number of vertices to be transformed
 	 */
 	public void transform(Point3D v[], Point3D tv[], int n) {
-		int k, j;
-		double[] tmp = new double[3];
-		for (k = 0; k < n; k++) {
-			for (j = 0; j < 3; j++) {
-				tmp[j] = m4x4[j][0] * v[k].x + m4x4[j][1] * v[k].y + m4x4[j][2]
-						* v[k].z + m4x4[j][3];
-			}
-			Point3D pt = new Point3D(tmp[0], tmp[1], tmp[2]);
-			tv[k] = pt;
+		double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+		double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+		double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+		for (int k = 0; k < n; k++) {
+			double vx = v[k].x, vy = v[k].y, vz = v[k].z;
+			Point3D pt = tv[k];
+			if (pt == null)
+				tv[k] = pt = new Point3D();
+			pt.x = m00 * vx + m01 * vy + m02 * vz + m03;
+			pt.y = m10 * vx + m11 * vy + m12 * vz + m13;
+			pt.z = m20 * vx + m21 * vy + m22 * vz + m23;
+		}
+	}
+
+	/**
+	 * Transforms vertices held in packed coordinate arrays.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param n
+	 *            number of vertices to be transformed
+	 */
+	public void transform(float x[], float y[], float z[], float tx[],
+			float ty[], float tz[], int n) {
+		transform(x, y, z, tx, ty, tz, 0, n);
+	}
+
+	/**
+	 * Transforms a range of vertices held in packed coordinate arrays.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param from
+	 *            index of the first vertex to be transformed
+	 * @param to
+	 *            index after the last vertex to be transformed
+	 */
+	public void transform(float x[], float y[], float z[], float tx[],
+			float ty[], float tz[], int from, int to) {
+		if (VECTORIZED) {
+			VectorTransform.transform(m, x, y, z, tx, ty, tz, from, to);
+			return;
 		}
+		transformScalar(x, y, z, tx, ty, tz, from, to);
+	}
+
+	/**
+	 * Transforms a range of vertices held in 16 bit coordinate arrays, as
+	 * stored by a quantized model. The dequantization is expected to be part
+	 * of the matrix.
+	 *
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param from
+	 *            index of the first vertex to be transformed
+	 * @param to
+	 *            index after the last vertex to be transformed
+	 * @see ObjModel3D#quantize()
+	 */
+	public void transform(short x[], short y[], short z[], float tx[],
+			float ty[], float tz[], int from, int to) {
+		double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+		double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+		double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+		for (int k = from; k < to; k++) {
+			double vx = x[k], vy = y[k], vz = z[k];
+			tx[k] = (float) (m00 * vx + m01 * vy + m02 * vz + m03);
+			ty[k] = (float) (m10 * vx + m11 * vy + m12 * vz + m13);
+			tz[k] = (float) (m20 * vx + m21 * vy + m22 * vz + m23);
+		}
+	}
+
+	/**
+	 * Transforms a range of vertices one by one in double precision.
+	 */
+	void transformScalar(float x[], float y[], float z[],
+			float tx[], float ty[], float tz[], int from, int to) {
+		double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+		double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+		double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+		for (int k = from; k < to; k++) {
+			double vx = x[k], vy = y[k], vz = z[k];
+			tx[k] = (float) (m00 * vx + m01 * vy + m02 * vz + m03);
+			ty[k] = (float) (m10 * vx + m11 * vy + m12 * vz + m13);
+			tz[k] = (float) (m20 * vx + m21 * vy + m22 * vz + m23);
+		}
+	}
+
+	/**
+	 * Checks whether packed coordinates are transformed with the JDK Vector
+	 * API. This is the case when the {@code jdk.incubator.vector} module is
+	 * present (run with {@code --add-modules jdk.incubator.vector}) and the
+	 * system property {@code j3d.vector} is not {@code false}. Otherwise the
+	 * scalar loop is used.
+	 *
+	 * @return true if the Vector API is used
+	 */
+	public static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+	/**
+	 * Decides whether the Vector API can be used. VectorTransformTest checks
+	 * it against the scalar loop.
+	 */
+	private static boolean detectVectorSupport() {
+		return !"false".equals(System.getProperty("j3d.vector"))
+				&& ModuleLayer.boot().findModule("jdk.incubator.vector")
+						.isPresent();
 	}
 
 }
@@ -0,0 +1,71 @@
+package j3d;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vertex transformation with the JDK Vector API. Coordinates are computed in
+ * float with fused multiply-adds, several vertices per instruction. Only
+ * loaded when the {@code jdk.incubator.vector} module is present, see
+ * {@link Transformer3D#isVectorized()}.
+ *
+ * @author Yizhuan Yu
+ */
+final class VectorTransform {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private VectorTransform() {
+	}
+
+	/**
+	 * Transforms a range of vertices held in packed coordinate arrays.
+	 *
+	 * @param m
+	 *            the 4x4 matrix, row-major
+	 * @param x
+	 *            x coordinates of the vertices to be transformed
+	 * @param y
+	 *            y coordinates of the vertices to be transformed
+	 * @param z
+	 *            z coordinates of the vertices to be transformed
+	 * @param tx
+	 *            the result - x coordinates of the transformed vertices
+	 * @param ty
+	 *            the result - y coordinates of the transformed vertices
+	 * @param tz
+	 *            the result - z coordinates of the transformed vertices
+	 * @param from
+	 *            index of the first vertex to be transformed
+	 * @param to
+	 *            index after the last vertex to be transformed
+	 */
+	static void transform(double m[], float x[], float y[], float z[],
+			float tx[], float ty[], float tz[], int from, int to) {
+		float m00 = (float) m[0], m01 = (float) m[1], m02 = (float) m[2], m03 = (float) m[3];
+		float m10 = (float) m[4], m11 = (float) m[5], m12 = (float) m[6], m13 = (float) m[7];
+		float m20 = (float) m[8], m21 = (float) m[9], m22 = (float) m[10], m23 = (float) m[11];
+		FloatVector b00 = FloatVector.broadcast(SPECIES, m00);
+		FloatVector b01 = FloatVector.broadcast(SPECIES, m01);
+		FloatVector b10 = FloatVector.broadcast(SPECIES, m10);
+		FloatVector b11 = FloatVector.broadcast(SPECIES, m11);
+		FloatVector b20 = FloatVector.broadcast(SPECIES, m20);
+		FloatVector b21 = FloatVector.broadcast(SPECIES, m21);
+		int k = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for (; k < bound; k += SPECIES.length()) {
+			FloatVector vx = FloatVector.fromArray(SPECIES, x, k);
+			FloatVector vy = FloatVector.fromArray(SPECIES, y, k);
+			FloatVector vz = FloatVector.fromArray(SPECIES, z, k);
+			vx.fma(b00, vy.fma(b01, vz.fma(m02, m03))).intoArray(tx, k);
+			vx.fma(b10, vy.fma(b11, vz.fma(m12, m13))).intoArray(ty, k);
+			vx.fma(b20, vy.fma(b21, vz.fma(m22, m23))).intoArray(tz, k);
+		}
+		for (; k < to; k++) {
+			float vx = x[k], vy = y[k], vz = z[k];
+			tx[k] = Math.fma(vx, m00, Math.fma(vy, m01, Math.fma(vz, m02, m03)));
+			ty[k] = Math.fma(vx, m10, Math.fma(vy, m11, Math.fma(vz, m12, m13)));
+			tz[k] = Math.fma(vx, m20, Math.fma(vy, m21, Math.fma(vz, m22, m23)));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package j3d;
+
+/**
+ * How a model is looked at: its rotation, the zoom and the pan. A view state
+ * never changes; every change makes a new one. It can thus be shared by the
+ * threads moving the model and the thread drawing it through an
+ * {@link java.util.concurrent.atomic.AtomicReference}, changes being
+ * composed with {@code updateAndGet}:
+ *
+ * <pre>
+ * view.updateAndGet(v -&gt; v.rotate(xtheta, ytheta, 0));
+ * </pre>
+ *
+ * and the drawing reading one state per frame, without a lock:
+ *
+ * <pre>
+ * transformer.fit(model, view.get(), width, height, 0.7);
+ * </pre>
+ *
+ * @author Yizhuan Yu
+ */
+public final class ViewState {
+
+	/**
+	 * The rotation matrix, row-major, never changed after construction.
+	 */
+	private final double m[];
+	private final double zoom, panX, panY;
+
+	/**
+	 * Constructs a view without rotation, zoom or pan.
+	 */
+	public ViewState() {
+		this(new Transformer3D(), 1, 0, 0);
+	}
+
+	private ViewState(Transformer3D rotation, double zoom, double panX,
+			double panY) {
+		this(matrix(rotation), zoom, panX, panY);
+	}
+
+	private ViewState(double m[], double zoom, double panX, double panY) {
+		this.m = m;
+		this.zoom = zoom;
+		this.panX = panX;
+		this.panY = panY;
+	}
+
+	private static double[] matrix(Transformer3D t) {
+		double m[] = new double[16];
+		t.getMatrix(m);
+		return m;
+	}
+
+	/**
+	 * Returns the view turned further around the X axis, then the Y axis,
+	 * then the Z axis.
+	 *
+	 * @param ax
+	 *            angle around the X axis in degrees
+	 * @param ay
+	 *            angle around the Y axis in degrees
+	 * @param az
+	 *            angle around the Z axis in degrees
+	 * @return the new view
+	 */
+	public ViewState rotate(double ax, double ay, double az) {
+		Transformer3D t = new Transformer3D();
+		t.mult(m);
+		t.rotX(ax);
+		t.rotY(ay);
+		t.rotZ(az);
+		return new ViewState(t, zoom, panX, panY);
+	}
+
+	/**
+	 * Returns the view zoomed by a factor.
+	 *
+	 * @param factor
+	 *            more than 1 to zoom in, less than 1 to zoom out
+	 * @return the new view
+	 */
+	public ViewState zoom(double factor) {
+		if (!(factor > 0))
+			throw new IllegalArgumentException("bad zoom: " + factor);
+		return new ViewState(m, zoom * factor, panX, panY);
+	}
+
+	/**
+	 * Returns the view moved on screen.
+	 *
+	 * @param dx
+	 *            distance along x in pixels
+	 * @param dy
+	 *            distance along y in pixels
+	 * @return the new view
+	 */
+	public ViewState pan(double dx, double dy) {
+		return new ViewState(m, zoom, panX + dx, panY + dy);
+	}
+
+	/**
+	 * Returns the rotation.
+	 *
+	 * @param dst
+	 *            the result - the rotation is copied to it
+	 */
+	public void getRotation(Transformer3D dst) {
+		dst.reset();
+		dst.mult(m);
+	}
+
+	/**
+	 * Returns the rotation matrix, which must not be changed.
+	 */
+	double[] rotation() {
+		return m;
+	}
+
+	/**
+	 * Returns the zoom.
+	 *
+	 * @return the zoom, 1 for none
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Returns the pan along x.
+	 *
+	 * @return the distance in pixels
+	 */
+	public double getPanX() {
+		return panX;
+	}
+
+	/**
+	 * Returns the pan along y.
+	 *
+	 * @return the distance in pixels
+	 */
+	public double getPanY() {
+		return panY;
+	}
+}
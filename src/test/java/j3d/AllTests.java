@@ -0,0 +1,40 @@
+package j3d;
+
+/**
+ * Runs all tests. A failed check throws an {@link AssertionError}, which
+ * ends the run with an error.
+ *
+ * @author Yizhuan Yu
+ */
+public class AllTests {
+
+	/**
+	 * Runs all tests.
+	 *
+	 * @param args
+	 *            not used
+	 * @throws Exception
+	 *             thrown when a test failed.
+	 */
+	public static void main(String[] args) throws Exception {
+		ObjParserTest.run();
+		BinaryModelFormatTest.run();
+		VectorTransformTest.run();
+		ModelRepositoryTest.run();
+		QuantizedPickTest.run();
+		System.out.println("All tests passed.");
+	}
+
+	/**
+	 * Fails a test unless a condition holds.
+	 *
+	 * @param condition
+	 *            the condition
+	 * @param message
+	 *            what went wrong
+	 */
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
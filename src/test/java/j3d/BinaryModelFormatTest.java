@@ -0,0 +1,98 @@
+package j3d;
+
+import static j3d.AllTests.check;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests of {@link BinaryModelFormat}.
+ *
+ * @author Yizhuan Yu
+ */
+class BinaryModelFormatTest {
+
+	static void run() throws Exception {
+		damagedIndicesAreRejected();
+		shortFacesAreRejected();
+	}
+
+	/**
+	 * A connection pointing past the vertices fails the read with a format
+	 * error, not later while drawing.
+	 */
+	static void damagedIndicesAreRejected() throws Exception {
+		ObjModel3D m = new ObjModel3D();
+		m.load(new ByteArrayInputStream(
+				"v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n"
+						.getBytes(StandardCharsets.US_ASCII)));
+		m.findBoundary();
+		m.compress();
+		Path file = Files.createTempFile("j3d", ".j3d");
+		try {
+			BinaryModelFormat.write(m, file);
+			ObjModel3D r = BinaryModelFormat.read(file);
+			check(r.getNumberOfConnections() == 3,
+					"connections: " + r.getNumberOfConnections());
+
+			ByteBuffer b = ByteBuffer.allocate(4)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			b.putInt(0, 0x0001FFFF);
+			try (FileChannel ch = FileChannel.open(file,
+					StandardOpenOption.WRITE)) {
+				ch.write(b, 64 + 12 * 3);// first connection
+			}
+			try {
+				BinaryModelFormat.read(file);
+				check(false, "damaged connection read");
+			} catch (ObjFileFormatException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * A face of less than three points fails the read with a format error,
+	 * even when the face starts still add up.
+	 */
+	static void shortFacesAreRejected() throws Exception {
+		ObjModel3D m = new ObjModel3D();
+		m.load(new ByteArrayInputStream(
+				"v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nf 1 2 3\nf 1 3 4\n"
+						.getBytes(StandardCharsets.US_ASCII)));
+		m.findBoundary();
+		m.compress();
+		Path file = Files.createTempFile("j3d", ".j3d");
+		try {
+			BinaryModelFormat.write(m, file);
+			ObjModel3D r = BinaryModelFormat.read(file);
+			check(r.getNumberOfFaces() == 2, "faces: " + r.getNumberOfFaces());
+
+			ByteBuffer b = ByteBuffer.allocate(4)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			b.putInt(0, 1);
+			try (FileChannel ch = FileChannel.open(file,
+					StandardOpenOption.WRITE)) {
+				// start of the second face, after the vertices, the five
+				// connections and the start of the first face
+				ch.write(b, 64 + 12 * 4 + 4 * 5 + 4);
+			}
+			try {
+				BinaryModelFormat.read(file);
+				check(false, "face of one point read");
+			} catch (ObjFileFormatException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
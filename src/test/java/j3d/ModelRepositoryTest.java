@@ -0,0 +1,95 @@
+package j3d;
+
+import static j3d.AllTests.check;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Tests of {@link ModelRepository}.
+ *
+ * @author Yizhuan Yu
+ */
+class ModelRepositoryTest {
+
+	static void run() throws Exception {
+		cacheIsPartOfTheKey();
+		preparationIsPartOfTheKey();
+	}
+
+	/**
+	 * A model is loaded once per cache: a request through a cache reads the
+	 * file through it without touching the loader shared by all requests,
+	 * and is not served the model read without it.
+	 */
+	static void cacheIsPartOfTheKey() throws Exception {
+		Path file = Files.createTempFile("j3d", ".obj");
+		Path dir = Files.createTempDirectory("j3d");
+		try {
+			Files.write(file, "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n"
+					.getBytes(StandardCharsets.US_ASCII));
+			ModelRepository models = new ModelRepository(1L << 20);
+			ObjModel3D plain = models.get(file, null).get();
+			ObjModel3D again = models.get(file, null).get();
+			ObjModel3D cached = models.get(file, new ModelCache(dir), null)
+					.get();
+			check(plain != again && plain.getNumberOfVertices() == 3
+					&& cached.getNumberOfVertices() == 3,
+					"requests not served models of their own");
+			check(models.getLoader().getCache() == null,
+					"request changed the cache of the shared loader");
+			try (Stream<Path> s = Files.list(dir)) {
+				check(s.count() == 1, "model not read through its cache");
+			}
+			RepositoryStatistics st = models.getStatistics();
+			check(st.getMisses() == 2 && st.getHits() == 1
+					&& st.getModels() == 2, "statistics: " + st);
+
+			models.remove(file.toUri().toURL());
+			check(models.getStatistics().getModels() == 0,
+					"models left after remove: "
+							+ models.getStatistics().getModels());
+		} finally {
+			try (Stream<Path> s = Files.list(dir)) {
+				for (Path p : (Iterable<Path>) s::iterator)
+					Files.delete(p);
+			}
+			Files.delete(dir);
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * A model is loaded once per preparation: a quantized or renumbered
+	 * request is not served the plain model, nor the other way round.
+	 */
+	static void preparationIsPartOfTheKey() throws Exception {
+		Path file = Files.createTempFile("j3d", ".obj");
+		try {
+			Files.write(file, "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n"
+					.getBytes(StandardCharsets.US_ASCII));
+			ModelRepository models = new ModelRepository(1L << 20);
+			ObjModel3D plain = models.get(file, null).get();
+			ObjModel3D again = models.get(file, null).get();
+			ObjModel3D quantized = models.get(file, null, false, true, null)
+					.get();
+			models.get(file, null, true, false, null).get();
+			check(!plain.isQuantized() && !again.isQuantized(),
+					"plain request served a quantized model");
+			check(quantized.isQuantized(),
+					"quantized request served a plain model");
+			RepositoryStatistics s = models.getStatistics();
+			check(s.getMisses() == 3 && s.getHits() == 1
+					&& s.getModels() == 3, "statistics: " + s);
+
+			models.remove(file.toUri().toURL());
+			check(models.getStatistics().getModels() == 0,
+					"models left after remove: "
+							+ models.getStatistics().getModels());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
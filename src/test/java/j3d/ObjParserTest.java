@@ -0,0 +1,87 @@
+package j3d;
+
+import static j3d.AllTests.check;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests of {@link ObjParser}.
+ *
+ * @author Yizhuan Yu
+ */
+class ObjParserTest {
+
+	static void run() throws Exception {
+		parallelLoadMatchesSequential();
+	}
+
+	/**
+	 * A file loaded on several cores gives the same model as loaded on one,
+	 * with vertex records the chunk counting could take for something else.
+	 */
+	static void parallelLoadMatchesSequential() throws Exception {
+		Path file = Files.createTempFile("j3d", ".obj");
+		try {
+			write(file, 200000);
+			ObjModel3D seq = load(file, Long.MAX_VALUE);
+			ObjModel3D par = load(file, 1);
+			check(seq.getNumberOfVertices() == 200003,
+					"vertices: " + seq.getNumberOfVertices());
+			check(par.getNumberOfVertices() == seq.getNumberOfVertices(),
+					"parallel vertices: " + par.getNumberOfVertices());
+			int n = seq.getNumberOfVertices();
+			check(Arrays.equals(Arrays.copyOf(seq.getOriginalX(), n),
+					Arrays.copyOf(par.getOriginalX(), n))
+					&& Arrays.equals(Arrays.copyOf(seq.getOriginalY(), n),
+							Arrays.copyOf(par.getOriginalY(), n))
+					&& Arrays.equals(Arrays.copyOf(seq.getOriginalZ(), n),
+							Arrays.copyOf(par.getOriginalZ(), n)),
+					"parallel coordinates differ");
+			check(par.getNumberOfConnections() == seq.getNumberOfConnections(),
+					"parallel connections: " + par.getNumberOfConnections());
+			for (int i = 0; i < seq.getNumberOfConnections(); i++)
+				check(par.getConnectionStart(i) == seq.getConnectionStart(i)
+						&& par.getConnectionEnd(i) == seq.getConnectionEnd(i),
+						"parallel connection " + i + " differs");
+			check(par.getNumberOfFaces() == seq.getNumberOfFaces(),
+					"parallel faces: " + par.getNumberOfFaces());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Writes a strip of triangles, with vertex records without coordinates
+	 * at the start, in the middle and at the very end of the file.
+	 */
+	private static void write(Path file, int n) throws IOException {
+		try (Writer w = Files.newBufferedWriter(file,
+				StandardCharsets.US_ASCII)) {
+			w.write("v\n");
+			for (int i = 0; i < n; i++) {
+				w.write("v " + i % 1000 + " " + i / 1000 + " " + (i & 7)
+						+ "\r\n");
+				if (i == n / 2)
+					w.write("v#no coordinates\n");
+			}
+			for (int i = 3; i + 2 <= n; i += 2)
+				w.write("f " + i + " " + (i + 1) + " " + (i + 2) + "\n");
+			w.write("v");
+		}
+	}
+
+	private static ObjModel3D load(Path file, long threshold)
+			throws Exception {
+		ObjModel3D m = new ObjModel3D();
+		m.setParallelLoadThreshold(threshold);
+		m.setLoadPool(new ForkJoinPool(4));
+		m.load(file);
+		return m;
+	}
+}
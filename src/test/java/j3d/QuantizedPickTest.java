@@ -0,0 +1,68 @@
+package j3d;
+
+import static j3d.AllTests.check;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests of picking on quantized models.
+ *
+ * @author Yizhuan Yu
+ */
+class QuantizedPickTest {
+
+	static void run() throws Exception {
+		picksMatchFloatModel();
+	}
+
+	/**
+	 * A quantized model, indexed over its 16 bit coordinates, picks the
+	 * same vertices and connections as the float model.
+	 */
+	static void picksMatchFloatModel() throws Exception {
+		ObjModel3D plain = grid(40), quantized = grid(40);
+		quantized.quantize();
+		Transformer3D t = new Transformer3D();
+		t.fit(plain, (Transformer3D) null, 800, 600, 0.7);
+		t.rotX(25);
+		t.rotY(35);
+		plain.transform(t);
+		float x[] = plain.getX(), y[] = plain.getY();
+		for (int i = 0; i < plain.getNumberOfVertices(); i += 7) {
+			int v = quantized.pickVertex(t, x[i], y[i], 2);
+			check(v >= 0 && v == plain.pickVertex(t, x[i], y[i], 2),
+					"vertex picked at " + i + ": " + v);
+			float mx = x[i] + 5, my = y[i] + 3;
+			int c = quantized.pickConnection(t, mx, my, 3);
+			check(c == plain.pickConnection(t, mx, my, 3),
+					"connection picked near " + i + ": " + c);
+		}
+	}
+
+	/**
+	 * Returns a wavy grid of triangles far from the origin, so that the
+	 * quantization steps differ per axis.
+	 */
+	private static ObjModel3D grid(int n) throws Exception {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				s.append("v ").append(1000 + i * 0.5).append(' ')
+						.append(-20 + j * 0.25).append(' ')
+						.append(Math.sin(i * 0.3) * Math.cos(j * 0.2))
+						.append('\n');
+		for (int i = 0; i + 1 < n; i++)
+			for (int j = 0; j + 1 < n; j++) {
+				int p = i * n + j + 1;
+				s.append("f ").append(p).append(' ').append(p + 1).append(' ')
+						.append(p + n).append('\n');
+			}
+		ObjModel3D m = new ObjModel3D();
+		m.load(new ByteArrayInputStream(s.toString().getBytes(
+				StandardCharsets.US_ASCII)));
+		m.findBoundary();
+		m.compress();
+		return m;
+	}
+}
@@ -0,0 +1,79 @@
+package j3d;
+
+import static j3d.AllTests.check;
+
+import java.util.Random;
+
+import jdk.incubator.vector.FloatVector;
+
+/**
+ * Tests of {@link VectorTransform} against the scalar loop of
+ * {@link Transformer3D}.
+ *
+ * @author Yizhuan Yu
+ */
+class VectorTransformTest {
+
+	static void run() {
+		matchesScalarLoop();
+	}
+
+	/**
+	 * Random matrices and vertices give the same result as the double loop
+	 * within float rounding, for ranges around the lane count so that the
+	 * vector loop, the tail and both together are covered, and for ranges
+	 * not starting at 0.
+	 */
+	static void matchesScalarLoop() {
+		int lanes = FloatVector.SPECIES_PREFERRED.length();
+		Random r = new Random(42);
+		double m[] = new double[16];
+		for (int trial = 0; trial < 200; trial++) {
+			Transformer3D t = new Transformer3D();
+			t.rotX(r.nextDouble() * 360);
+			t.rotY(r.nextDouble() * 360);
+			t.rotZ(r.nextDouble() * 360);
+			t.scale(r.nextDouble() * 100 - 50, r.nextDouble() * 100 - 50,
+					r.nextDouble() * 10);
+			t.translate(r.nextDouble() * 2000 - 1000,
+					r.nextDouble() * 2000 - 1000, r.nextDouble() * 20);
+			t.getMatrix(m);
+			int n = 1 + trial % (4 * lanes + 3);
+			int from = trial % 3 == 0 ? r.nextInt(n) : 0;
+			float x[] = new float[n], y[] = new float[n], z[] = new float[n];
+			for (int i = 0; i < n; i++) {
+				x[i] = (float) (r.nextGaussian() * 100);
+				y[i] = (float) (r.nextGaussian() * 100);
+				z[i] = (float) (r.nextGaussian() * 100);
+			}
+			float sx[] = new float[n], sy[] = new float[n], sz[] = new float[n];
+			float vx[] = new float[n], vy[] = new float[n], vz[] = new float[n];
+			t.transformScalar(x, y, z, sx, sy, sz, from, n);
+			VectorTransform.transform(m, x, y, z, vx, vy, vz, from, n);
+			for (int i = 0; i < n; i++) {
+				check(near(m, 0, x[i], y[i], z[i], sx[i], vx[i])
+						&& near(m, 4, x[i], y[i], z[i], sy[i], vy[i])
+						&& near(m, 8, x[i], y[i], z[i], sz[i], vz[i]),
+						"vertex " + i + " of " + from + ".." + n
+								+ " differs with " + lanes + " lanes: ("
+								+ sx[i] + ", " + sy[i] + ", " + sz[i]
+								+ ") and (" + vx[i] + ", " + vy[i] + ", "
+								+ vz[i] + ")");
+				if (i < from)
+					check(vx[i] == 0 && vy[i] == 0 && vz[i] == 0,
+							"vertex " + i + " before the range written");
+			}
+		}
+	}
+
+	/**
+	 * Checks a coordinate against the double result, within a few float
+	 * units of the largest term of its row.
+	 */
+	private static boolean near(double m[], int row, float x, float y,
+			float z, float expected, float actual) {
+		double scale = Math.abs(m[row] * x) + Math.abs(m[row + 1] * y)
+				+ Math.abs(m[row + 2] * z) + Math.abs(m[row + 3]);
+		return Math.abs(expected - actual) <= 8 * Math.ulp((float) scale);
+	}
+}